@@ -16,9 +16,6 @@
 
 package com.example.elasticagent;
 
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
@@ -49,8 +46,6 @@ public class Agent {
     public static final Type AGENT_METADATA_LIST_TYPE = new TypeToken<ArrayList<Agent>>() {
     }.getType();
 
-    private static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
-
     @Expose
     @SerializedName("agent_id")
     private String agentId;
@@ -96,11 +91,11 @@ public class Agent {
     }
 
     public static List<Agent> fromJSONArray(String json) {
-        return GSON.fromJson(json, AGENT_METADATA_LIST_TYPE);
+        return JsonCodecs.GSON.fromJson(json, AGENT_METADATA_LIST_TYPE);
     }
 
     public static String toJSONArray(Collection<Agent> metadata) {
-        return new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create().toJson(metadata);
+        return JsonCodecs.toJSONArray(metadata);
     }
 
     @Override
@@ -20,6 +20,10 @@ import com.example.elasticagent.models.AgentStatusReport;
 import com.example.elasticagent.models.JobIdentifier;
 import com.example.elasticagent.models.StatusReport;
 import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.requests.ShouldAssignWorkRequest;
+
+import java.util.Collection;
+import java.util.Map;
 
 
 /**
@@ -47,6 +51,36 @@ public interface AgentInstances<T> {
      */
     void terminate(String agentId, PluginSettings settings) throws Exception;
 
+    /**
+     * This message is sent when an agent finished its job, before it is terminated.
+     *
+     * @param agentId  the elastic agent id
+     * @param settings the plugin settings object
+     * @return true if the agent is kept idle for another job of its elastic profile, false if it should be terminated
+     */
+    boolean keepForReuse(String agentId, PluginSettings settings);
+
+    /**
+     * This message is sent from the {@link com.example.elasticagent.executors.ShouldAssignWorkRequestExecutor}
+     * for agents that were not created for the job. Idle agents kept by {@link #keepForReuse} are only handed a job
+     * by {@link #create}, this confirms such a hand-over and never claims an agent itself.
+     *
+     * @param agentId the elastic agent id
+     * @param request the job the server wants to assign
+     * @return true if the agent was claimed for the job by {@link #create}
+     */
+    boolean assignIdle(String agentId, ShouldAssignWorkRequest request);
+
+    /**
+     * Terminates several agent instances at once, with as few calls to the cloud provider as possible.
+     * Agent ids that are not known to the plugin are considered terminated.
+     *
+     * @param agentIds the elastic agent ids
+     * @param settings the plugin settings object
+     * @return the agent ids that could not be terminated, mapped to the reason
+     */
+    Map<String, Exception> terminate(Collection<String> agentIds, PluginSettings settings) throws Exception;
+
     /**
      * This message is sent from the {@link com.example.elasticagent.executors.ServerPingRequestExecutor}
      * to terminate instances that did not register with the server after a timeout. The timeout may be configurable and
@@ -71,8 +105,8 @@ public interface AgentInstances<T> {
     /**
      * This message is sent after plugin initialization time so that the plugin may connect to the cloud provider
      * and fetch a list of all instances that have been spun up by this plugin (before the server was shut down).
-     * This call should be should ideally remember if the agent instances are refreshed, and do nothing if instances
-     * were previously refreshed.
+     * It is sent again periodically through the {@link RefreshCoordinator}, so implementations should apply only
+     * what changed since the previous call rather than rebuilding their state.
      *
      * @param pluginRequest the plugin request object
      */
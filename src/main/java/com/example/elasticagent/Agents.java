@@ -16,35 +16,26 @@
 
 package com.example.elasticagent;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Iterators;
 
 import java.util.*;
 
 /**
- * Represents a map of {@link Agent#elasticAgentId()} to the {@link Agent} for easy lookups
+ * Represents a map of {@link Agent#elasticAgentId()} to the {@link Agent} for easy lookups.
+ * <p>
+ * Agents are also kept in buckets by config state and agent state as they are added, so the candidates to disable
+ * or terminate are views over a few buckets instead of a filtered copy of every agent.
  */
 public class Agents {
 
-    private final Map<String, Agent> agents = new HashMap<>();
+    // agents in these states are not running a job and can be disabled, then terminated, safely
+    private static final Set<Agent.AgentState> REMOVABLE_STATES = EnumSet.of(Agent.AgentState.Idle, Agent.AgentState.Missing, Agent.AgentState.LostContact);
 
-    // Filter for agents that can be disabled safely
-    private static final Predicate<Agent> AGENT_IDLE_PREDICATE = new Predicate<Agent>() {
-        @Override
-        public boolean apply(Agent metadata) {
-            Agent.AgentState agentState = metadata.agentState();
-            return metadata.configState().equals(Agent.ConfigState.Enabled) && (agentState.equals(Agent.AgentState.Idle) || agentState.equals(Agent.AgentState.Missing) || agentState.equals(Agent.AgentState.LostContact));
-        }
-    };
+    private final Map<String, Agent> agents = new LinkedHashMap<>();
+    private final Map<Agent.ConfigState, Map<Agent.AgentState, Set<Agent>>> buckets = new EnumMap<>(Agent.ConfigState.class);
 
-    // Filter for agents that can be terminated safely
-    private static final Predicate<Agent> AGENT_DISABLED_PREDICATE = new Predicate<Agent>() {
-        @Override
-        public boolean apply(Agent metadata) {
-            Agent.AgentState agentState = metadata.agentState();
-            return metadata.configState().equals(Agent.ConfigState.Disabled) && (agentState.equals(Agent.AgentState.Idle) || agentState.equals(Agent.AgentState.Missing) || agentState.equals(Agent.AgentState.LostContact));
-        }
-    };
+    private final Collection<Agent> toDisable = new BucketView(Agent.ConfigState.Enabled, REMOVABLE_STATES);
+    private final Collection<Agent> toTerminate = new BucketView(Agent.ConfigState.Disabled, REMOVABLE_STATES);
 
     public Agents() {
     }
@@ -63,28 +54,94 @@ public class Agents {
         addAll(agents.agents());
     }
 
+    /**
+     * @return a live view of the enabled agents that are not building
+     */
     public Collection<Agent> findInstancesToDisable() {
-        return FluentIterable.from(agents.values()).filter(AGENT_IDLE_PREDICATE).toList();
+        return toDisable;
     }
 
+    /**
+     * @return a live view of the disabled agents that are not building
+     */
     public Collection<Agent> findInstancesToTerminate() {
-        return FluentIterable.from(agents.values()).filter(AGENT_DISABLED_PREDICATE).toList();
+        return toTerminate;
     }
 
     public Set<String> agentIds() {
-        return new LinkedHashSet<>(agents.keySet());
+        return Collections.unmodifiableSet(agents.keySet());
     }
 
     public boolean containsAgentWithId(String agentId) {
         return agents.containsKey(agentId);
     }
 
+    public Agent find(String agentId) {
+        return agents.get(agentId);
+    }
+
     public Collection<Agent> agents() {
-        return new ArrayList<>(agents.values());
+        return Collections.unmodifiableCollection(agents.values());
     }
 
     public void add(Agent agent) {
-        agents.put(agent.elasticAgentId(), agent);
+        Agent previous = agents.put(agent.elasticAgentId(), agent);
+        if (previous != null && isIndexed(previous)) {
+            bucket(previous.configState(), previous.agentState()).remove(previous);
+        }
+        if (isIndexed(agent)) {
+            bucket(agent.configState(), agent.agentState()).add(agent);
+        }
+    }
+
+    /**
+     * Applies a successful disable call to this snapshot, so that it need not be listed again from the server.
+     * The given agents must not be a view over this snapshot.
+     */
+    public void markDisabled(Collection<Agent> disabled) {
+        for (Agent agent : disabled) {
+            Agent current = agents.get(agent.elasticAgentId());
+            if (current != null) {
+                add(new Agent(current.elasticAgentId(), current.agentState(), current.buildState(), Agent.ConfigState.Disabled));
+            }
+        }
+    }
+
+    // agents with a state this plugin does not know are never candidates for anything
+    private static boolean isIndexed(Agent agent) {
+        return agent.configState() != null && agent.agentState() != null;
+    }
+
+    private Set<Agent> bucket(Agent.ConfigState configState, Agent.AgentState agentState) {
+        return buckets.computeIfAbsent(configState, state -> new EnumMap<>(Agent.AgentState.class))
+                .computeIfAbsent(agentState, state -> new LinkedHashSet<>());
     }
 
+    private class BucketView extends AbstractCollection<Agent> {
+        private final List<Set<Agent>> viewed = new ArrayList<>();
+
+        BucketView(Agent.ConfigState configState, Set<Agent.AgentState> agentStates) {
+            for (Agent.AgentState agentState : agentStates) {
+                viewed.add(bucket(configState, agentState));
+            }
+        }
+
+        @Override
+        public Iterator<Agent> iterator() {
+            List<Iterator<Agent>> iterators = new ArrayList<>(viewed.size());
+            for (Set<Agent> bucket : viewed) {
+                iterators.add(Iterators.unmodifiableIterator(bucket.iterator()));
+            }
+            return Iterators.concat(iterators.iterator());
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Set<Agent> bucket : viewed) {
+                size += bucket.size();
+            }
+            return size;
+        }
+    }
 }
@@ -23,6 +23,7 @@ import java.util.Collections;
 
 public interface Constants {
     String PLUGIN_ID = Util.pluginId();
+    String PLUGIN_VERSION = Util.pluginVersion();
 
     // The type of this extension
     String EXTENSION_TYPE = "elastic-agent";
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.backoff.EqualJitterBackoffStrategy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the EC2 clients shared by every plugin request thread. Both clients are thread-safe and keep a pool of
+ * connections, so they are built once and only rebuilt when the plugin settings that shape them change.
+ */
+public class Ec2Clients implements AutoCloseable {
+    private static final Logger LOG = Logger.getLoggerFor(Ec2Clients.class);
+
+    // the SDK defaults, spelled out so that the longest a call can take is known when its client is retired
+    private static final int RETRIES_PER_CALL = 3;
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(20);
+    private static final RetryPolicy RETRY_POLICY = RetryPolicy.builder()
+            .numRetries(RETRIES_PER_CALL)
+            .backoffStrategy(FullJitterBackoffStrategy.builder()
+                    .baseDelay(Duration.ofMillis(100))
+                    .maxBackoffTime(MAX_BACKOFF)
+                    .build())
+            .throttlingBackoffStrategy(EqualJitterBackoffStrategy.builder()
+                    .baseDelay(Duration.ofMillis(500))
+                    .maxBackoffTime(MAX_BACKOFF)
+                    .build())
+            .build();
+
+    private final ScheduledExecutorService retirements = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("elastic-agent-ec2-client-retirement-%d")
+            .setDaemon(true)
+            .build());
+    private final List<AutoCloseable> retiring = new ArrayList<>();
+    private boolean closed;
+    private PluginSettings settings = new PluginSettings();
+    private volatile Ec2Client client;
+    private volatile Ec2AsyncClient asyncClient;
+
+    /**
+     * Applies the given settings to the clients handed out from now on. If any transport setting changed, the
+     * current clients are swapped out and only closed once every call already started on them has run out of time.
+     * Settings applied after {@link #close()} are ignored.
+     */
+    public synchronized void configure(PluginSettings settings) {
+        if (closed || settings == null || settings.hasSameTransportAs(this.settings)) {
+            return;
+        }
+
+        if (client != null || asyncClient != null) {
+            LOG.info("EC2 transport settings changed, rebuilding the EC2 clients");
+            // the SDK gives up on a call, retries included, once its api call timeout has passed
+            Duration grace = apiCallTimeout(this.settings);
+            retire(client, grace);
+            retire(asyncClient, grace);
+            client = null;
+            asyncClient = null;
+        }
+        this.settings = settings;
+    }
+
+    public Ec2Client sync() {
+        Ec2Client client = this.client;
+        if (client != null) {
+            return client;
+        }
+        synchronized (this) {
+            checkNotClosed();
+            if (this.client == null) {
+                this.client = Ec2Client.builder()
+                        .httpClientBuilder(ApacheHttpClient.builder()
+                                .maxConnections(settings.getEc2MaxConnections())
+                                .connectionTimeout(settings.getEc2ConnectionTimeout())
+                                .socketTimeout(settings.getEc2SocketTimeout())
+                                .connectionMaxIdleTime(settings.getEc2ConnectionMaxIdleTime())
+                                .tcpKeepAlive(settings.getEc2TcpKeepAlive()))
+                        .overrideConfiguration(overrideConfiguration(settings))
+                        .build();
+            }
+            return this.client;
+        }
+    }
+
+    public Ec2AsyncClient async() {
+        Ec2AsyncClient asyncClient = this.asyncClient;
+        if (asyncClient != null) {
+            return asyncClient;
+        }
+        synchronized (this) {
+            checkNotClosed();
+            if (this.asyncClient == null) {
+                this.asyncClient = Ec2AsyncClient.builder()
+                        .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                                .maxConcurrency(settings.getEc2MaxConnections())
+                                .connectionTimeout(settings.getEc2ConnectionTimeout())
+                                .readTimeout(settings.getEc2SocketTimeout())
+                                .writeTimeout(settings.getEc2SocketTimeout())
+                                .connectionMaxIdleTime(settings.getEc2ConnectionMaxIdleTime())
+                                .tcpKeepAlive(settings.getEc2TcpKeepAlive()))
+                        .overrideConfiguration(overrideConfiguration(settings))
+                        .build();
+            }
+            return this.asyncClient;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        retirements.shutdownNow();
+        retire(client, Duration.ZERO);
+        retire(asyncClient, Duration.ZERO);
+        client = null;
+        asyncClient = null;
+        for (AutoCloseable retired : new ArrayList<>(retiring)) {
+            closeRetired(retired);
+        }
+    }
+
+    /**
+     * @return the longest a call may take: every attempt running into both timeouts, plus the longest backoff between them
+     */
+    static Duration apiCallTimeout(PluginSettings settings) {
+        Duration attempt = settings.getEc2ConnectionTimeout().plus(settings.getEc2SocketTimeout());
+        return attempt.multipliedBy(RETRIES_PER_CALL + 1).plus(MAX_BACKOFF.multipliedBy(RETRIES_PER_CALL));
+    }
+
+    private static ClientOverrideConfiguration overrideConfiguration(PluginSettings settings) {
+        return ClientOverrideConfiguration.builder()
+                .addExecutionInterceptor(new Ec2MetricsInterceptor())
+                .retryPolicy(RETRY_POLICY)
+                .apiCallTimeout(apiCallTimeout(settings))
+                .build();
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("The EC2 clients have been closed");
+        }
+    }
+
+    private void retire(AutoCloseable client, Duration grace) {
+        if (client == null) {
+            return;
+        }
+        retiring.add(client);
+        if (grace.isZero() || retirements.isShutdown()) {
+            return;
+        }
+        retirements.schedule(() -> closeRetired(client), grace.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void closeRetired(AutoCloseable client) {
+        if (!retiring.remove(client)) {
+            return;
+        }
+        // the clients own the HTTP clients built from the builders above and close their connection pools with them
+        try {
+            client.close();
+        } catch (Exception e) {
+            LOG.warn("Could not close a retired EC2 client", e);
+        }
+    }
+}
@@ -20,10 +20,29 @@ import com.example.elasticagent.models.AgentStatusReport;
 import com.example.elasticagent.models.JobIdentifier;
 import com.example.elasticagent.models.StatusReport;
 import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.requests.ShouldAssignWorkRequest;
+import com.google.common.collect.Collections2;
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.joda.time.Period;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.Reservation;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class ExampleAgentInstances implements AgentInstances<ExampleInstance> {
 
@@ -32,98 +51,370 @@ public class ExampleAgentInstances implements AgentInstances<ExampleInstance> {
 	
     private final ConcurrentHashMap<String, ExampleInstance> instances = new ConcurrentHashMap<>();
 
+    // Secondary index of instances by the job they were created for. Registered instances are indexed from inside
+    // instances.compute*, so their entries change atomically with the primary map for any given agent id.
+    // create() also writes it directly: it reserves the job with putIfAbsent before launching, so only one caller
+    // launches per job, and a failed launch removes only its own reservation. A successful launch replaces the
+    // reservation through register(), so a job never maps to a reservation and a registered instance at once.
+    private final ConcurrentHashMap<JobIdentifier, ExampleInstance> instancesByJob = new ConcurrentHashMap<>();
+
+    // Instances younger than this are kept even if DescribeInstances does not list them yet,
+    // EC2 is only eventually consistent right after RunInstances.
+    private static final long REFRESH_GRACE_PERIOD_MILLIS = Period.minutes(2).toStandardDuration().getMillis();
+    private static final int DESCRIBE_INSTANCES_PAGE_SIZE = 1000;
+
+    private final Ec2Clients ec2Clients;
+    private final LaunchBatcher launchBatcher;
+    private final InstanceTerminator terminator;
+    private final WarmPool warmPool;
+    private final RegistrationDeadlines registrationDeadlines = new RegistrationDeadlines();
+
+    // agents kept after finishing a job, by when they became idle; only create() claims one, by removing it
+    private final ConcurrentHashMap<String, Long> idleSince = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> jobsCompleted = new ConcurrentHashMap<>();
+    // the job create() handed each reused agent to, until that job completes
+    private final ConcurrentHashMap<String, JobIdentifier> claimedFor = new ConcurrentHashMap<>();
+    // reused agents whose EC2 tags still name their previous job, refreshes keep the job from the registry
+    private final Set<String> pendingRetags = ConcurrentHashMap.newKeySet();
+    // reused agents whose retag failed, tagged again on the next refresh
+    private final Set<String> failedRetags = ConcurrentHashMap.newKeySet();
+
     private boolean refreshed;
     public Clock clock = Clock.DEFAULT;
+
+    public ExampleAgentInstances() {
+        this(new Ec2Clients());
+    }
+
+    // tests substitute a mock, or clients built against a local EC2 fake
+    public ExampleAgentInstances(Ec2Clients ec2Clients) {
+        this(ec2Clients, new LaunchBatcher(ec2Clients::async));
+    }
+
+    public ExampleAgentInstances(Ec2Clients ec2Clients, LaunchBatcher launchBatcher) {
+        this(ec2Clients, launchBatcher, new WarmPool(ec2Clients::async));
+    }
+
+    public ExampleAgentInstances(Ec2Clients ec2Clients, LaunchBatcher launchBatcher, WarmPool warmPool) {
+        this.ec2Clients = ec2Clients;
+        this.launchBatcher = launchBatcher;
+        this.terminator = new InstanceTerminator(ec2Clients::sync);
+        this.warmPool = warmPool;
+    }
+
+    /**
+     * Stops the background work of this registry. The EC2 clients belong to the caller and are left open.
+     */
+    public void shutdown() {
+        launchBatcher.shutdown();
+    }
     
     @Override
     public ExampleInstance create(CreateAgentRequest request, PluginSettings settings) throws Exception {
     	LOG.info("Recieved create instance request for jobIdentifier: " + request.jobIdentifier());
-    	ExampleInstance existingInstance = this.find(request.jobIdentifier());
+    	JobIdentifier jobIdentifier = request.jobIdentifier();
+    	
+    	// Claim an idle agent of the same profile first, removing it from idleSince is atomic so only one job gets it
+    	Map.Entry<String, Long> idle = claimIdle(request, settings);
+    	
+    	// Reserve the job before launching anything. putIfAbsent is atomic per key, so exactly one caller wins the
+    	// reservation and launches, every other caller gets the same pending instance and can wait on launched().
+    	CompletableFuture<ExampleInstance> launch = new CompletableFuture<>();
+    	ExampleInstance reservation = ExampleInstance.pending(jobIdentifier, launch);
+    	ExampleInstance existingInstance = instancesByJob.putIfAbsent(jobIdentifier, reservation);
     	if(existingInstance != null)
     	{
     		LOG.info("An agent has already been created for that job");
+    		if (idle != null && instances.containsKey(idle.getKey())) {
+    			idleSince.putIfAbsent(idle.getKey(), idle.getValue());
+    		}
     		return existingInstance;
     	}
     	
-    	ExampleInstance newInstance = (new ExampleInstance.Builder())
-    			.createAgentRequest(request)
-    			.pluginSettings(settings)
-    			.build();
-    	
-    	this.register(newInstance);
-    	return newInstance;
+    	try {
+    		ec2Clients.configure(settings);
+    		ExampleInstance reused = idle == null ? null : reuse(idle.getKey(), jobIdentifier);
+    		if (reused != null) {
+    			launch.complete(reused);
+    			return reservation;
+    		}
+    		launch(request, settings).whenComplete((newInstance, e) -> {
+    			if (e != null) {
+    				LOG.error("Could not launch an instance for jobIdentifier: " + jobIdentifier, e);
+    				// release the reservation so that the next create request for this job can try again
+    				instancesByJob.remove(jobIdentifier, reservation);
+    				launch.completeExceptionally(e);
+    			} else {
+    				this.register(newInstance);
+    				launch.complete(newInstance);
+    			}
+    		});
+    	} catch (Exception e) {
+    		instancesByJob.remove(jobIdentifier, reservation);
+    		launch.completeExceptionally(e);
+    		throw e;
+    	}
+    	return reservation;
+    }
+
+    private Map.Entry<String, Long> claimIdle(CreateAgentRequest request, PluginSettings settings) {
+    	if (idleSince.isEmpty()) {
+    		return null;
+    	}
+    	String profileId = ExampleInstance.profileId(request.properties(), request.environment());
+    	long keptAfter = clock.now().getMillis() - settings.getIdleAgentKeepAlive().toMillis();
+    	for (Map.Entry<String, Long> idle : idleSince.entrySet()) {
+    		ExampleInstance instance = instances.get(idle.getKey());
+    		if (instance != null && profileId.equals(instance.profileId()) && idle.getValue() > keptAfter
+    				&& idleSince.remove(idle.getKey(), idle.getValue())) {
+    			return idle;
+    		}
+    	}
+    	return null;
+    }
+
+    // moves a claimed idle agent over to the job, null if it was unregistered after it was claimed
+    private ExampleInstance reuse(String agentId, JobIdentifier jobIdentifier) {
+    	claimedFor.put(agentId, jobIdentifier);
+    	ExampleInstance reused = instances.computeIfPresent(agentId, (id, previous) -> {
+    		unindex(previous);
+    		ExampleInstance instance = previous.withJob(jobIdentifier);
+    		index(instance);
+    		return instance;
+    	});
+    	if (reused == null) {
+    		claimedFor.remove(agentId, jobIdentifier);
+    		return null;
+    	}
+
+    	LOG.info("Reusing idle agent " + agentId + " for " + jobIdentifier);
+    	pendingRetags.add(agentId);
+    	retag(agentId, jobIdentifier);
+    	return reused;
+    }
+
+    // the tags let a restarted plugin, and later refreshes, find the agent by its new job
+    private void retag(String agentId, JobIdentifier jobIdentifier) {
+    	ec2Clients.async().createTags(CreateTagsRequest.builder()
+    			.resources(agentId)
+    			.tags(jobIdentifier.getTagsForInstance())
+    			.build())
+    			.whenComplete((response, e) -> {
+    				if (e != null) {
+    					LOG.warn("Could not tag agent " + agentId + " with " + jobIdentifier + ", retrying on the next refresh", e);
+    					failedRetags.add(agentId);
+    				} else {
+    					pendingRetags.remove(agentId);
+    				}
+    			});
+    }
+
+    private void retryFailedRetags() {
+    	for (String agentId : failedRetags) {
+    		failedRetags.remove(agentId);
+    		ExampleInstance instance = instances.get(agentId);
+    		if (instance != null && instance.jobIdentifier() != null && pendingRetags.contains(agentId)) {
+    			retag(agentId, instance.jobIdentifier());
+    		}
+    	}
+    }
+
+    // starts an instance from the warm pool of the profile if one is ready, and launches a new one otherwise
+    private CompletableFuture<ExampleInstance> launch(CreateAgentRequest request, PluginSettings settings) throws Exception {
+    	CompletableFuture<ExampleInstance> started = warmPool.claim(request, settings);
+    	if (started == null) {
+    		return launchBatcher.submit(request, settings);
+    	}
+    	return started.handle((instance, e) -> e == null ? CompletableFuture.completedFuture(instance) : launchBatcher.submit(request, settings))
+    			.thenCompose(Function.identity());
     }
 
     @Override
     public void terminate(String agentId, PluginSettings settings) throws Exception {
-        // TODO: Implement me!
     	LOG.info("MyPlugin: terminate");
-        throw new UnsupportedOperationException();
+        Exception failure = terminate(Collections.singletonList(agentId), settings).get(agentId);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean keepForReuse(String agentId, PluginSettings settings) {
+        claimedFor.remove(agentId);
+        ExampleInstance instance = instances.get(agentId);
+        if (instance == null || instance.profileId() == null) {
+            return false;
+        }
+        if (jobsCompleted.merge(agentId, 1, Integer::sum) >= settings.getMaxJobsPerInstance()) {
+            return false;
+        }
+        LOG.info("Keeping agent " + agentId + " for another job");
+        idleSince.put(agentId, clock.now().getMillis());
+        // server pings look at the agent again until it is reused or its keep-alive runs out
+        registrationDeadlines.keepExpired(agentId);
+        return true;
+    }
+
+    @Override
+    public boolean assignIdle(String agentId, ShouldAssignWorkRequest request) {
+        return Objects.equals(claimedFor.get(agentId), request.jobIdentifier());
+    }
+
+    @Override
+    public Map<String, Exception> terminate(Collection<String> agentIds, PluginSettings settings) {
+        LOG.info("MyPlugin: terminate " + agentIds.size() + " agents");
+        List<String> known = new ArrayList<>();
+        for (String agentId : agentIds) {
+            if (instances.containsKey(agentId)) {
+                known.add(agentId);
+            } else {
+                LOG.warn("Requested to terminate an instance that does not exist " + agentId);
+            }
+        }
+        if (known.isEmpty()) {
+            return Collections.emptyMap();
+        }
 
-//        ExampleInstance instance = instances.get(agentId);
-//        if (instance != null) {
-//            instance.terminate(docker(settings));
-//        } else {
-//            LOG.warn("Requested to terminate an instance that does not exist " + agentId);
-//        }
-//        instances.remove(agentId);
+        ec2Clients.configure(settings);
+        Map<String, Exception> failures = terminator.terminate(known);
+        for (String agentId : known) {
+            if (!failures.containsKey(agentId)) {
+                unregister(agentId);
+            }
+        }
+        return failures;
     }
 
     @Override
     public void terminateUnregisteredInstances(PluginSettings settings, Agents agents) throws Exception {
-        // TODO: Implement me!
     	LOG.info("MyPlugin: terminateUnregisteredInstances");
-        //throw new UnsupportedOperationException();
+        List<String> toTerminate = new ArrayList<>();
+        for (String agentId : expiredInstances(settings)) {
+            if (!agents.containsAgentWithId(agentId)) {
+                toTerminate.add(agentId);
+            } else if (isIdleOnPurpose(agentId, settings)) {
+                registrationDeadlines.keepExpired(agentId);
+            } else {
+                registrationDeadlines.settle(agentId);
+            }
+        }
+        if (toTerminate.isEmpty()) {
+            return;
+        }
 
-//        ExampleAgentInstances toTerminate = unregisteredAfterTimeout(settings, agents);
-//        if (toTerminate.instances.isEmpty()) {
-//            return;
-//        }
-//
-//        LOG.warn("Terminating instances that did not register " + toTerminate.instances.keySet());
-//        for (ExampleInstance container : toTerminate.instances.values()) {
-//            terminate(container.name(), settings);
-//        }
+        LOG.warn("Terminating instances that did not register " + toTerminate);
+        for (String agentId : terminate(toTerminate, settings).keySet()) {
+            // looked at again on the next ping
+            registrationDeadlines.keepExpired(agentId);
+        }
     }
 
     @Override
-    // TODO: Implement me!
     public Agents instancesCreatedAfterTimeout(PluginSettings settings, Agents agents) {
     	LOG.info("MyPlugin: instancesCreatedAfterTimeout");
         ArrayList<Agent> oldAgents = new ArrayList<>();
-        for (Agent agent : agents.agents()) {
-        	LOG.info("MyPlugin: looking for " + agent.elasticAgentId());
-            ExampleInstance instance = instances.get(agent.elasticAgentId());
-            if (instance == null) {
-            	LOG.info("MyPlugin: instance not found in ConcurrentHashMap");
+        for (String agentId : expiredInstances(settings)) {
+            Agent agent = agents.find(agentId);
+            if (agent == null || isIdleOnPurpose(agentId, settings)) {
+                // unregistered ones are left for terminateUnregisteredInstances, kept ones are looked at again
+                registrationDeadlines.keepExpired(agentId);
                 continue;
             }
+            registrationDeadlines.settle(agentId);
+            oldAgents.add(agent);
+        }
+        return new Agents(oldAgents);
+    }
 
-            if (clock.now().isAfter(instance.createdAt().plus(settings.getAutoRegisterPeriod()))) {
-            	LOG.info("MyPlugin: agent is old");
-                oldAgents.add(agent);
+    // kept for another job, or already handed one by create() that the server has not assigned yet
+    private boolean isIdleOnPurpose(String agentId, PluginSettings settings) {
+        if (claimedFor.containsKey(agentId)) {
+            return true;
+        }
+        Long idle = idleSince.get(agentId);
+        return idle != null && clock.now().getMillis() < idle + settings.getIdleAgentKeepAlive().toMillis();
+    }
+
+    // Only the instances whose auto-register deadline passed since they were last looked at, or that were kept expired
+    private List<String> expiredInstances(PluginSettings settings) {
+        long timeoutMillis = settings.getAutoRegisterPeriod().toStandardDuration().getMillis();
+        List<String> expired = new ArrayList<>();
+        for (String agentId : registrationDeadlines.expire(clock.now().getMillis(), timeoutMillis)) {
+            // skips the instances that lost a race with unregister()
+            if (instances.containsKey(agentId)) {
+                expired.add(agentId);
             }
         }
-        LOG.info("MyPlugin: instancesCreatedAfterTimeout return");
-        return new Agents(oldAgents);
+        return expired;
     }
 
     @Override
     public void refreshAll(PluginRequest pluginRequest) throws Exception {
     	LOG.info("MyPlugin: refreshAll");
-    	refreshed = true;
-        // TODO: Implement me!
-        //throw new UnsupportedOperationException();
+        PluginSettings settings = pluginRequest.getPluginSettings();
+        ec2Clients.configure(settings);
+        warmPool.resize(settings.getWarmPoolSize());
+        retryFailedRetags();
+        Set<String> knownBeforeRefresh = new HashSet<>(instances.keySet());
+        Set<String> seen = new HashSet<>();
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+
+        DescribeInstancesRequest.Builder request = DescribeInstancesRequest.builder()
+                .filters(
+                        Filter.builder()
+                                .name("tag:" + CreateAgentRequest.AGENT_AUTO_REGISTER_ELASTIC_AGENT_PLUGIN_ID)
+                                .values(Constants.PLUGIN_ID)
+                                .build(),
+                        Filter.builder()
+                                .name("instance-state-name")
+                                .values(InstanceStateName.PENDING.toString(), InstanceStateName.RUNNING.toString(),
+                                        InstanceStateName.STOPPING.toString(), InstanceStateName.STOPPED.toString())
+                                .build())
+                .maxResults(DESCRIBE_INSTANCES_PAGE_SIZE);
 
-//        if (!refreshed) {
-//            TODO: List all instances from the cloud provider and select the ones that are created by this plugin
-//            TODO: Most cloud providers allow applying some sort of labels or tags to instances that you may find of use
-//            List<InstanceInfo> instanceInfos = cloud.listInstances().filter(...)
-//            for (Instance instanceInfo: instanceInfos) {
-//                  register(ExampleInstance.fromInstanceInfo(instanceInfo))
-//            }
-//            refreshed = true;
-//        }
+        String nextToken = null;
+        do {
+            DescribeInstancesResponse response = ec2Clients.sync().describeInstances(request.nextToken(nextToken).build());
+            for (Reservation reservation : response.reservations()) {
+                for (Instance instance : reservation.instances()) {
+                    if (warmPool.observe(instance)) {
+                        continue;
+                    }
+                    seen.add(instance.instanceId());
+                    ExampleInstance known = instances.get(instance.instanceId());
+                    ExampleInstance listed = new ExampleInstance(instance);
+                    if (known != null && known.jobIdentifier() != null
+                            && (listed.jobIdentifier() == null || pendingRetags.contains(known.name()))) {
+                        // listed before its job tags were applied, the job is already known from the launch or reuse
+                        listed = listed.withJob(known.jobIdentifier());
+                    }
+                    // a reuse or launch may have registered the instance since it was looked up, that one is newer
+                    if (known == null) {
+                        if (registerIfUnchanged(null, listed)) {
+                            added++;
+                        }
+                    } else if (!known.isSameAs(listed) && registerIfUnchanged(known, listed)) {
+                        changed++;
+                    }
+                }
+            }
+            nextToken = response.nextToken();
+        } while (nextToken != null);
+
+        // only consider what was registered before the listing started, anything newer may simply not be listed yet
+        knownBeforeRefresh.removeAll(seen);
+        for (String agentId : knownBeforeRefresh) {
+            ExampleInstance instance = instances.get(agentId);
+            if (instance != null && clock.now().getMillis() > instance.launchedAtMillis() + REFRESH_GRACE_PERIOD_MILLIS) {
+                unregister(agentId);
+                removed++;
+            }
+        }
+
+        refreshed = true;
+        LOG.info(String.format("MyPlugin: refreshAll found %d instances (%d added, %d changed, %d removed)", seen.size(), added, changed, removed));
     }
 
     @Override
@@ -135,30 +426,48 @@ public class ExampleAgentInstances implements AgentInstances<ExampleInstance> {
     @Override
     public ExampleInstance find(JobIdentifier jobIdentifier) {
     	LOG.info("MyPlugin: find jobId: " + jobIdentifier);
-        // TODO: Implement me!
-        return instances.values()
-                .stream()
-                .filter(x -> x.jobIdentifier().equals(jobIdentifier))
-                .findFirst()
-                .orElse(null);
+        if (jobIdentifier == null) {
+            return null;
+        }
+        return instancesByJob.get(jobIdentifier);
     }
 
     @Override
     public StatusReport getStatusReport(PluginSettings pluginSettings) throws Exception {
     	LOG.info("MyPlugin: getStatusReport");
-        // TODO: Implement me!
-        // TODO: Read status information about agent instances from the cloud provider
-//        return new StatusReport("")
-        throw new UnsupportedOperationException();
+        // a live view over the registry, rows are created while the view is rendered instead of copied up front
+        Metrics metrics = Metrics.instance();
+        return new StatusReport(Constants.PLUGIN_VERSION, Collections2.transform(instances.values(), this::statusReportOf),
+                metrics.snapshot(), metrics.toJson(), amiPreparationScripts(pluginSettings));
+    }
+
+    private static List<StatusReport.AmiPreparationScript> amiPreparationScripts(PluginSettings pluginSettings) {
+        List<StatusReport.AmiPreparationScript> scripts = new ArrayList<>();
+        if (pluginSettings == null) {
+            return scripts;
+        }
+        Set<String> operatingSystems = new HashSet<>();
+        for (UserDataGenerator.Platform platform : UserDataGenerator.Platform.values()) {
+            // the linux platforms only differ in how the per-boot script is delivered
+            if (operatingSystems.add(platform.operatingSystem())) {
+                scripts.add(new StatusReport.AmiPreparationScript(platform.operatingSystem(),
+                        UserDataGenerator.instance().amiPreparationScript(platform, pluginSettings, null)));
+            }
+        }
+        return scripts;
     }
 
     @Override
     public AgentStatusReport getAgentStatusReport(PluginSettings pluginSettings, ExampleInstance agentInstance) {
     	LOG.info("MyPlugin: getAgentStatusReport");
-        // TODO: Implement me!
-        // TODO: Read status information about agent instance from the cloud provider
-//        return new AgentStatusReport(null, null, null)
-        throw new UnsupportedOperationException();
+        return statusReportOf(agentInstance);
+    }
+
+    private AgentStatusReport statusReportOf(ExampleInstance instance) {
+        return new AgentStatusReport(instance.jobIdentifier(), instance.name(),
+                instance.isPending() ? null : instance.launchedAtMillis(),
+                instance.isPending() ? "launching" : String.valueOf(instance.state()),
+                instance.environment());
     }
 
     // used by tests
@@ -167,28 +476,67 @@ public class ExampleAgentInstances implements AgentInstances<ExampleInstance> {
         return instances.containsKey(agentId);
     }
 
-    private void register(ExampleInstance instance) {
+    // package-private for tests
+    void register(ExampleInstance instance) {
     	LOG.info("MyPlugin: register");
-        instances.put(instance.name(), instance);
-    }
-
-//    private ExampleAgentInstances unregisteredAfterTimeout(PluginSettings settings, Agents knownAgents) throws Exception {
-//        Period period = settings.getAutoRegisterPeriod();
-//        ExampleAgentInstances unregisteredContainers = new ExampleAgentInstances();
-//
-//        for (String instanceName : instances.keySet()) {
-//            if (knownAgents.containsAgentWithId(instanceName)) {
-//                continue;
-//            }
-//
-//            // TODO: Connect to the cloud provider to fetch information about this instance
-//            InstanceInfo instanceInfo = connection.inspectInstance(instanceName);
-//            DateTime dateTimeCreated = new DateTime(instanceInfo.created());
-//
-//            if (clock.now().isAfter(dateTimeCreated.plus(period))) {
-//                unregisteredContainers.register(ExampleInstance.fromInstanceInfo(instanceInfo));
-//            }
-//        }
-//        return unregisteredContainers;
-//    }
+        instances.compute(instance.name(), (agentId, previous) -> replace(agentId, previous, instance));
+    }
+
+    // registers the instance only while the registry still holds <code>expected</code>
+    private boolean registerIfUnchanged(ExampleInstance expected, ExampleInstance instance) {
+        boolean[] registered = new boolean[1];
+        instances.compute(instance.name(), (agentId, previous) -> {
+            if (previous != expected) {
+                return previous;
+            }
+            registered[0] = true;
+            return replace(agentId, previous, instance);
+        });
+        return registered[0];
+    }
+
+    // only called from inside instances.compute*
+    private ExampleInstance replace(String agentId, ExampleInstance previous, ExampleInstance instance) {
+        if (previous != null) {
+            unindex(previous);
+            if (previous.launchedAtMillis() != instance.launchedAtMillis()) {
+                // e.g. a stopped instance started again, its deadline starts over from the new launch time
+                registrationDeadlines.untrack(agentId, previous.launchedAtMillis());
+            }
+        }
+        index(instance);
+        registrationDeadlines.track(agentId, instance.launchedAtMillis());
+        return instance;
+    }
+
+    // package-private for tests
+    ExampleInstance unregister(String agentId) {
+        LOG.info("MyPlugin: unregister");
+        ExampleInstance[] removed = new ExampleInstance[1];
+        instances.computeIfPresent(agentId, (id, instance) -> {
+            unindex(instance);
+            registrationDeadlines.untrack(id, instance.launchedAtMillis());
+            warmPool.forget(id);
+            idleSince.remove(id);
+            jobsCompleted.remove(id);
+            claimedFor.remove(id);
+            pendingRetags.remove(id);
+            failedRetags.remove(id);
+            removed[0] = instance;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void index(ExampleInstance instance) {
+        if (instance.jobIdentifier() != null) {
+            instancesByJob.put(instance.jobIdentifier(), instance);
+        }
+    }
+
+    private void unindex(ExampleInstance instance) {
+        if (instance.jobIdentifier() != null) {
+            instancesByJob.remove(instance.jobIdentifier(), instance);
+        }
+    }
 }
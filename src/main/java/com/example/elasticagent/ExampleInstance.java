@@ -18,9 +18,14 @@ package com.example.elasticagent;
 
 import com.example.elasticagent.models.JobIdentifier;
 import com.example.elasticagent.requests.CreateAgentRequest;
+import com.google.common.hash.Hashing;
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateSpecification;
 import software.amazon.awssdk.services.ec2.model.ResourceType;
 import software.amazon.awssdk.services.ec2.model.RunInstancesMonitoringEnabled;
 import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
@@ -28,43 +33,158 @@ import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ec2.model.TagSpecification;
 import org.joda.time.DateTime;
-import org.joda.time.Instant;
-import java.util.Base64;
-import java.util.function.BiFunction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * What the plugin keeps about an EC2 instance. Only the fields it needs are copied out of the SDK {@link Instance},
+ * already parsed, so that tracking an agent does not retain its block devices, network interfaces and tags.
+ */
 public class ExampleInstance {
 
-    private Instance instance;
+    private static final String JOB_ID_TAG = "jobId";
+    public static final String PROFILE_ID_TAG = "elastic-agent-profile";
+
+    private final String instanceId;
+    private final long launchedAtMillis;
+    private final JobIdentifier jobIdentifier;
+    private final String environment;
+    private final String profileId;
+    private final InstanceStateName state;
+    private final CompletableFuture<ExampleInstance> launch;
     
     public ExampleInstance(Instance instance) {
-        this.instance = instance;
+        if (instance == null) {
+            this.instanceId = null;
+            this.launchedAtMillis = 0;
+            this.jobIdentifier = null;
+            this.environment = null;
+            this.profileId = null;
+            this.state = null;
+        } else {
+            this.instanceId = instance.instanceId();
+            this.launchedAtMillis = instance.launchTime() != null ? instance.launchTime().toEpochMilli() : 0;
+            this.state = instance.state() != null ? instance.state().name() : null;
+
+            String environment = null;
+            String profileId = null;
+            boolean hasJob = false;
+            for (Tag tag : instance.tags()) {
+                if (CreateAgentRequest.AGENT_AUTO_REGISTER_ENVIRONMENTS.equals(tag.key())) {
+                    environment = tag.value();
+                } else if (PROFILE_ID_TAG.equals(tag.key())) {
+                    profileId = tag.value();
+                } else if (JOB_ID_TAG.equals(tag.key())) {
+                    hasJob = true;
+                }
+            }
+            this.environment = environment;
+            this.profileId = profileId;
+            // parsed once, this is the key of the job index in ExampleAgentInstances
+            this.jobIdentifier = hasJob ? new JobIdentifier(instance.tags()) : null;
+        }
+        this.launch = null;
+    }
+
+    private ExampleInstance(JobIdentifier jobIdentifier, CompletableFuture<ExampleInstance> launch) {
+        this.instanceId = null;
+        this.launchedAtMillis = 0;
+        this.jobIdentifier = jobIdentifier;
+        this.environment = null;
+        this.profileId = null;
+        this.state = null;
+        this.launch = launch;
+    }
+
+    private ExampleInstance(ExampleInstance instance, JobIdentifier jobIdentifier) {
+        this.instanceId = instance.instanceId;
+        this.launchedAtMillis = instance.launchedAtMillis;
+        this.jobIdentifier = jobIdentifier;
+        this.environment = instance.environment;
+        this.profileId = instance.profileId;
+        this.state = instance.state;
+        this.launch = null;
+    }
+
+    /**
+     * A placeholder for an instance whose RunInstances call has not returned yet. It has no name until then.
+     */
+    public static ExampleInstance pending(JobIdentifier jobIdentifier, CompletableFuture<ExampleInstance> launch) {
+        return new ExampleInstance(jobIdentifier, launch);
+    }
+
+    /**
+     * @return this instance, reassigned to another job of the same elastic profile
+     */
+    public ExampleInstance withJob(JobIdentifier jobIdentifier) {
+        return new ExampleInstance(this, jobIdentifier);
+    }
+
+    /**
+     * Instances launched for different elastic profiles or environments are not interchangeable, the id tells them
+     * apart without keeping the profile itself.
+     */
+    public static String profileId(Map<String, String> properties, String environment) {
+        String profile = new TreeMap<>(properties == null ? Collections.<String, String>emptyMap() : properties) + "\n" + environment;
+        return Hashing.sha256().hashString(profile, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    public boolean isPending() {
+        return launch != null;
+    }
+
+    /**
+     * @return a future that completes with the launched instance, this instance itself if it was never pending
+     */
+    public CompletableFuture<ExampleInstance> launched() {
+        return launch != null ? launch : CompletableFuture.completedFuture(this);
     }
 
     public String name() {
-        return instance.instanceId();
+        return instanceId;
+    }
+
+    public long launchedAtMillis() {
+        return launchedAtMillis;
     }
 
     public DateTime createdAt() {
-    	Instant launchInstant = Instant.ofEpochSecond(instance.launchTime().getEpochSecond());
-        return new DateTime(launchInstant);
+        return new DateTime(launchedAtMillis);
     }
     
-    public String getTagValue(String key)
-    {
-    	for(Tag tag : instance.tags())
-    	{
-    		if(tag.key() == key)
-    			return tag.value();
-    	}
-    	return null;
+    public InstanceStateName state() {
+        return state;
     }
 
     public String environment() {
-        return getTagValue(CreateAgentRequest.AGENT_AUTO_REGISTER_ENVIRONMENTS);
+        return environment;
     }
 
     public JobIdentifier jobIdentifier() {
-        return new JobIdentifier(instance.tags());
+        return jobIdentifier;
+    }
+
+    /**
+     * @return the id of the elastic profile the instance was launched for, null for instances launched before it was tagged
+     */
+    public String profileId() {
+        return profileId;
+    }
+
+    /**
+     * @return true if the other description of the same instance carries no change that the registry needs to know about
+     */
+    public boolean isSameAs(ExampleInstance other) {
+        return state == other.state
+                && launchedAtMillis == other.launchedAtMillis
+                && Objects.equals(jobIdentifier, other.jobIdentifier)
+                && Objects.equals(environment, other.environment);
     }
 
     @Override
@@ -74,12 +194,18 @@ public class ExampleInstance {
 
         ExampleInstance that = (ExampleInstance) o;
 
-        return instance != null ? instance.equals(that.instance) : that.instance == null;
+        if (isPending() || that.isPending()) {
+            return launch == that.launch;
+        }
+        return Objects.equals(instanceId, that.instanceId) && isSameAs(that);
     }
 
     @Override
     public int hashCode() {
-        return instance != null ? instance.hashCode() : 0;
+        if (isPending()) {
+            return launch.hashCode();
+        }
+        return Objects.hash(instanceId, launchedAtMillis, jobIdentifier, environment, state);
     }
     
 	@FunctionalInterface
@@ -95,22 +221,19 @@ public class ExampleInstance {
 	}
     
     public static class Builder {
-    	//TODO: the ec2 object should probably be a singleton
-    	private static Ec2Client ec2 = null;
     	private static final Logger LOG = Logger.getLoggerFor(Builder.class);
     	
-    	private static Ec2Client getEc2()
-    	{
-    		if(ec2 == null) {
-    			ec2 = Ec2Client.create();
-    		}
-    		return ec2;
-    	}
-    	
     	private RunInstancesRequest.Builder runInstancesRequestBuilder;
     	private TagSpecification.Builder instanceTagSpecificationBuilder;
     	private CreateAgentRequest request = null;
     	private PluginSettings settings = null;
+    	private int count = 1;
+    	private UserDataGenerator.Platform platform = UserDataGenerator.Platform.WINDOWS;
+    	private String agentDownloadUrl = null;
+    	private UserDataGenerator.InstallMode installMode = UserDataGenerator.InstallMode.DOWNLOAD;
+    	private String launchTemplateId = null;
+    	private String launchTemplateVersion = null;
+    	private String warmPoolId = null;
     	
     	public Builder()
     	{    		
@@ -130,6 +253,69 @@ public class ExampleInstance {
     		return this;
     	}
     	
+    	/**
+    	 * Launches up to <code>count</code> identical instances in one request. Job tags are left off when launching
+    	 * more than one, the caller tags each instance with its job once they are known.
+    	 */
+    	public Builder count(int count)
+    	{
+    		this.count = count;
+    		return this;
+    	}
+    	
+    	public Builder platform(String platform)
+    	{
+    		this.platform = UserDataGenerator.Platform.fromProfileValue(platform);
+    		return this;
+    	}
+    	
+    	/**
+    	 * Overrides where the agent is downloaded from, by default the GoCD download site for the configured version.
+    	 */
+    	public Builder agentDownloadUrl(String agentDownloadUrl)
+    	{
+    		this.agentDownloadUrl = agentDownloadUrl;
+    		return this;
+    	}
+    	
+    	/**
+    	 * Whether the AMI already has the agent installed, see {@link UserDataGenerator#amiPreparationScript}.
+    	 */
+    	public Builder installMode(String installMode)
+    	{
+    		this.installMode = UserDataGenerator.InstallMode.fromProfileValue(installMode);
+    		return this;
+    	}
+    	
+    	/**
+    	 * Launches from an EC2 launch template, the instance fields of the profile then only override the template.
+    	 */
+    	public Builder launchTemplateId(String launchTemplateId)
+    	{
+    		this.launchTemplateId = StringUtils.trimToNull(launchTemplateId);
+    		return this;
+    	}
+    	
+    	/**
+    	 * The version of the launch template, its default version if none is given.
+    	 */
+    	public Builder launchTemplateVersion(String launchTemplateVersion)
+    	{
+    		this.launchTemplateVersion = StringUtils.trimToNull(launchTemplateVersion);
+    		return this;
+    	}
+    	
+    	/**
+    	 * Launches instances for the warm pool instead of for the job of the request: they are tagged with the pool
+    	 * and the profile only, and boot without user data. The job's user data is set when one is started for a job,
+    	 * see {@link #buildUserData()}.
+    	 */
+    	public Builder warmPool(String warmPoolId)
+    	{
+    		this.warmPoolId = warmPoolId;
+    		return this;
+    	}
+    	
     	public RunInstancesRequest.Builder getRunInstancesRequestBuilder()
     	{
     		return runInstancesRequestBuilder;
@@ -142,44 +328,122 @@ public class ExampleInstance {
     		if(settings == null)
     			throw new Exception("Must provide a PluginSettings to the builder.");
     		
-    		String userData = "";
-    		BiFunction<String, String, String> addLine = (String string, String line) -> { return string + line + "\r\n"; };
-    		
-        	userData = addLine.apply(userData, "<powershell>");
-        	userData = addLine.apply(userData, "mkdir \"C:\\Program Files (x86)\\Go Agent\\config\"");
-        	userData = addLine.apply(userData, "$instanceId = (Invoke-WebRequest http://169.254.169.254/latest/meta-data/instance-id).Content");
-        	userData = addLine.apply(userData, "$hostName = (Invoke-WebRequest http://169.254.169.254/latest/meta-data/public-hostname).Content");	
-        	userData = addLine.apply(userData, "$UserInfoToFile = @\"");
-        	userData = addLine.apply(userData, request.autoregisterPropertiesAsString("$instanceId", "$hostName"));
-        	userData = addLine.apply(userData, "\"@");
-        	userData = addLine.apply(userData, "$UserInfoToFile | Out-File -FilePath \"C:\\Program Files (x86)\\Go Agent\\config\\autoregister.properties\" -Encoding ASCII");
-        	userData = addLine.apply(userData, "Invoke-WebRequest -OutFile C:\\Users\\Administrator\\Downloads\\go-agent-18.11.0-8024-jre-64bit-setup.exe https://download.gocd.org/binaries/18.11.0-8024/win/go-agent-18.11.0-8024-jre-64bit-setup.exe");
-        	userData = addLine.apply(userData, "C:\\Users\\Administrator\\Downloads\\go-agent-18.11.0-8024-jre-64bit-setup.exe /S /START_AGENT=YES /SERVERURL=`\"" + settings.getGoServerUrl() + "`\"");  //TODO: set server URL correctly
-        	userData = addLine.apply(userData, "</powershell>");
-        	userData = Base64.getEncoder().encodeToString(userData.getBytes());
-    		return userData;
+    		return UserDataGenerator.instance().generate(platform, installMode, request, settings, agentDownloadUrl);
     	}
     	
-    	public ExampleInstance build() throws Exception 
+    	private void applyProfile() throws Exception
     	{
+    		if(request == null)
+    			throw new Exception("Must provide a CreateAgentRequest to the builder.");
+    		
         	for(Command command : request.getPropertyCommands())
     		{
     			command.apply(this);
     		}
+    	}
+    	
+    	/**
+    	 * @return the base64 encoded user data for the request, without building the rest of the launch
+    	 */
+    	public String buildUserData() throws Exception
+    	{
+    		applyProfile();
+    		return this.getUserData();
+    	}
+    	
+    	public RunInstancesRequest buildRunInstancesRequest() throws Exception
+    	{
+    		applyProfile();
         	
-        	this.instanceTagSpecificationBuilder.tags(request.getTagsForInstance());
+        	if(warmPoolId != null)
+        	{
+        		return buildWarmRunInstancesRequest();
+        	}
+        	
+        	this.instanceTagSpecificationBuilder.tags(count == 1 ? request.getTagsForInstance() : request.getProfileTagsForInstance());
+        	
+        	if(!applyLaunchTemplate())
+        	{
+        		runInstancesRequestBuilder.monitoring(RunInstancesMonitoringEnabled.builder().enabled(false).build());
+        	}
     		
-    		RunInstancesRequest runInstancesRequest = runInstancesRequestBuilder
+    		return runInstancesRequestBuilder
     				.tagSpecifications(instanceTagSpecificationBuilder.build())
-        			.monitoring(RunInstancesMonitoringEnabled.builder().enabled(false).build())
         			.userData(this.getUserData())
         			.minCount(1)
-        			.maxCount(1)
+        			.maxCount(count)
         			.build();
+    	}
+    	
+    	/**
+    	 * @return true if the profile launches from a launch template; everything not overridden by the profile then
+    	 * comes from the template, and the request only carries the job
+    	 */
+    	private boolean applyLaunchTemplate()
+    	{
+    		if(launchTemplateId == null)
+    			return false;
+    		
+    		runInstancesRequestBuilder.launchTemplate(LaunchTemplateSpecification.builder()
+    				.launchTemplateId(launchTemplateId)
+    				.version(launchTemplateVersion)
+    				.build());
+    		return true;
+    	}
+    	
+    	private RunInstancesRequest buildWarmRunInstancesRequest()
+    	{
+    		// the user data that starts the agent only runs on every boot for agents that are already installed
+    		if(installMode != UserDataGenerator.InstallMode.PREINSTALLED)
+    			throw new IllegalStateException("Warm pools need an elastic profile with a pre-installed agent.");
+    		
+    		List<Tag> tags = new ArrayList<>(request.getProfileTagsForInstance());
+    		tags.add(Tag.builder().key(WarmPool.WARM_POOL_TAG).value(warmPoolId).build());
+    		this.instanceTagSpecificationBuilder.tags(tags);
+    		applyLaunchTemplate();
+    		
+    		return runInstancesRequestBuilder
+    				.tagSpecifications(instanceTagSpecificationBuilder.build())
+    				.minCount(1)
+    				.maxCount(count)
+    				.build();
+    	}
+    	
+    	/**
+    	 * Launches the instance through a client of its own and waits for EC2 to answer. Only meant for one-off use,
+    	 * the plugin launches through the shared clients in {@link Ec2Clients}.
+    	 */
+    	public ExampleInstance build() throws Exception 
+    	{
+    		try (Ec2Client ec2 = Ec2Client.create()) {
+    			return build(ec2);
+    		}
+    	}
+    	
+    	/**
+    	 * Launches the instance and waits for EC2 to answer. Prefer {@link #launch(Ec2AsyncClient)} on the plugin request threads.
+    	 */
+    	public ExampleInstance build(Ec2Client ec2) throws Exception 
+    	{
+    		RunInstancesRequest runInstancesRequest = buildRunInstancesRequest();
     		
     		LOG.info("Sending RunInstancesRequest to AWS");
-    		RunInstancesResponse response = getEc2().runInstances(runInstancesRequest);
+    		return fromResponse(ec2.runInstances(runInstancesRequest));
+    	}
+    	
+    	/**
+    	 * Sends the RunInstancesRequest through the asynchronous client and returns without waiting for EC2.
+    	 */
+    	public CompletableFuture<ExampleInstance> launch(Ec2AsyncClient ec2) throws Exception
+    	{
+    		RunInstancesRequest runInstancesRequest = buildRunInstancesRequest();
     		
+    		LOG.info("Sending asynchronous RunInstancesRequest to AWS");
+    		return ec2.runInstances(runInstancesRequest).thenApply(Builder::fromResponse);
+    	}
+    	
+    	private static ExampleInstance fromResponse(RunInstancesResponse response)
+    	{
     		LOG.info(Integer.toString(response.instances().size()) + "ec2 instances created");
     		for (Instance instance : response.instances())
         	{
@@ -23,7 +23,9 @@ import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.GoPlugin;
 import com.thoughtworks.go.plugin.api.GoPluginIdentifier;
 import com.thoughtworks.go.plugin.api.annotation.Extension;
+import com.thoughtworks.go.plugin.api.annotation.UnLoad;
 import com.thoughtworks.go.plugin.api.exceptions.UnhandledRequestTypeException;
+import com.thoughtworks.go.plugin.api.info.PluginContext;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
@@ -36,80 +38,116 @@ public class ExamplePlugin implements GoPlugin {
     public static final Logger LOG = Logger.getLoggerFor(ExamplePlugin.class);
 
     private PluginRequest pluginRequest;
-    private AgentInstances agentInstances;
+    private Ec2Clients ec2Clients;
+    private ExampleAgentInstances agentInstances;
+    private RefreshCoordinator refreshCoordinator;
+    private RequestDispatcher requestDispatcher;
 
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor accessor) {
         pluginRequest = new PluginRequest(accessor);
-        agentInstances = new ExampleAgentInstances();
+        ec2Clients = new Ec2Clients();
+        agentInstances = new ExampleAgentInstances(ec2Clients);
+        refreshCoordinator = new RefreshCoordinator(agentInstances, pluginRequest);
+        requestDispatcher = new RequestDispatcher();
+    }
+
+    @UnLoad
+    public void onUnload(PluginContext context) {
+        LOG.info("Plugin unloading, closing the EC2 clients");
+        if (requestDispatcher != null) {
+            requestDispatcher.shutdown();
+        }
+        if (refreshCoordinator != null) {
+            refreshCoordinator.shutdown();
+        }
+        if (agentInstances != null) {
+            agentInstances.shutdown();
+        }
+        if (ec2Clients != null) {
+            ec2Clients.close();
+        }
     }
 
     @Override
     public GoPluginApiResponse handle(GoPluginApiRequest request) throws UnhandledRequestTypeException {
+        Request requestType = Request.fromString(request.requestName());
+        if (requestType == null) {
+            LOG.info("UnhandledRequestTypeException");
+            throw new UnhandledRequestTypeException(request.requestName());
+        }
+
         try {
-            switch (Request.fromString(request.requestName())) {
-                case REQUEST_SHOULD_ASSIGN_WORK:
-                	LOG.info("REQUEST_SHOULD_ASSIGN_WORK");
-                    refreshInstances();
-                    return ShouldAssignWorkRequest.fromJSON(request.requestBody()).executor(agentInstances).execute();
-                case REQUEST_CREATE_AGENT:
-                	LOG.info("REQUEST_CREATE_AGENT");
-                    refreshInstances();
-                    return CreateAgentRequest.fromJSON(request.requestBody()).executor(agentInstances, pluginRequest).execute();
-                case REQUEST_SERVER_PING:
-                	LOG.info("REQUEST_SERVER_PING");
-                    refreshInstances();
-                    return new ServerPingRequestExecutor(agentInstances, pluginRequest).execute();
-                case PLUGIN_SETTINGS_GET_VIEW:
-                	LOG.info("PLUGIN_SETTINGS_GET_VIEW");
-                    return new GetViewRequestExecutor().execute();
-                case REQUEST_GET_PROFILE_METADATA:
-                	LOG.info("REQUEST_GET_PROFILE_METADATA");
-                    return new GetProfileMetadataExecutor().execute();
-                case REQUEST_GET_PROFILE_VIEW:
-                	LOG.info("REQUEST_GET_PROFILE_VIEW");
-                    return new GetProfileViewExecutor().execute();
-                case REQUEST_VALIDATE_PROFILE:
-                	LOG.info("REQUEST_VALIDATE_PROFILE");
-                    return ProfileValidateRequest.fromJSON(request.requestBody()).executor().execute();
-                case PLUGIN_SETTINGS_GET_ICON:
-                	LOG.info("PLUGIN_SETTINGS_GET_ICON");
-                    return new GetPluginSettingsIconExecutor().execute();
-                case PLUGIN_SETTINGS_GET_CONFIGURATION:
-                	LOG.info("PLUGIN_SETTINGS_GET_CONFIGURATION");
-                    return new GetPluginConfigurationExecutor().execute();
-                case PLUGIN_SETTINGS_VALIDATE_CONFIGURATION:
-                	LOG.info("PLUGIN_SETTINGS_VALIDATE_CONFIGURATION");
-                    return ValidatePluginSettings.fromJSON(request.requestBody()).executor().execute();
-                case REQUEST_JOB_COMPLETION:
-                	LOG.info("REQUEST_JOB_COMPLETION");
-                    refreshInstances();
-                    return JobCompletionRequest.fromJSON(request.requestBody()).executor(agentInstances, pluginRequest).execute();
-                case REQUEST_STATUS_REPORT:
-                	LOG.info("REQUEST_STATUS_REPORT");
-                    refreshInstances();
-                    return new StatusReportExecutor(pluginRequest, agentInstances, ViewBuilder.instance()).execute();
-                case REQUEST_AGENT_STATUS_REPORT:
-                	LOG.info("REQUEST_AGENT_STATUS_REPORT");
-                    refreshInstances();
-                    return AgentStatusReportRequest.fromJSON(request.requestBody()).executor(pluginRequest, agentInstances, ViewBuilder.instance()).execute();
-                case REQUEST_CAPABILITIES:
-                	LOG.info("REQUEST_CAPABILITIES");
-                    return new GetCapabilitiesExecutor().execute();
-                default:
-                	LOG.info("UnhandledRequestTypeException");
-                    throw new UnhandledRequestTypeException(request.requestName());
-            }
+            // never run on the server's calling thread, see RequestDispatcher
+            return requestDispatcher.dispatch(requestType, () -> execute(requestType, request));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    private GoPluginApiResponse execute(Request requestType, GoPluginApiRequest request) throws Exception {
+        switch (requestType) {
+            case REQUEST_SHOULD_ASSIGN_WORK:
+            	LOG.info("REQUEST_SHOULD_ASSIGN_WORK");
+                // answer from what is already known, this is called for every idle agent and must not block
+                refreshCoordinator.refreshInBackground();
+                return ShouldAssignWorkRequest.fromJSON(request.requestBody()).executor(agentInstances).execute();
+            case REQUEST_CREATE_AGENT:
+            	LOG.info("REQUEST_CREATE_AGENT");
+                refreshInstances();
+                return CreateAgentRequest.fromJSON(request.requestBody()).executor(agentInstances, pluginRequest).execute();
+            case REQUEST_SERVER_PING:
+            	LOG.info("REQUEST_SERVER_PING");
+                refreshInstances();
+                return new ServerPingRequestExecutor(agentInstances, pluginRequest).execute();
+            case PLUGIN_SETTINGS_GET_VIEW:
+            	LOG.info("PLUGIN_SETTINGS_GET_VIEW");
+                return new GetViewRequestExecutor().execute();
+            case REQUEST_GET_PROFILE_METADATA:
+            	LOG.info("REQUEST_GET_PROFILE_METADATA");
+                return new GetProfileMetadataExecutor().execute();
+            case REQUEST_GET_PROFILE_VIEW:
+            	LOG.info("REQUEST_GET_PROFILE_VIEW");
+                return new GetProfileViewExecutor().execute();
+            case REQUEST_VALIDATE_PROFILE:
+            	LOG.info("REQUEST_VALIDATE_PROFILE");
+                return ProfileValidateRequest.fromJSON(request.requestBody()).executor().execute();
+            case PLUGIN_SETTINGS_GET_ICON:
+            	LOG.info("PLUGIN_SETTINGS_GET_ICON");
+                return new GetPluginSettingsIconExecutor().execute();
+            case PLUGIN_SETTINGS_GET_CONFIGURATION:
+            	LOG.info("PLUGIN_SETTINGS_GET_CONFIGURATION");
+                return new GetPluginConfigurationExecutor().execute();
+            case PLUGIN_SETTINGS_VALIDATE_CONFIGURATION:
+            	LOG.info("PLUGIN_SETTINGS_VALIDATE_CONFIGURATION");
+                pluginRequest.invalidatePluginSettings();
+                return ValidatePluginSettings.fromJSON(request.requestBody()).executor().execute();
+            case REQUEST_JOB_COMPLETION:
+            	LOG.info("REQUEST_JOB_COMPLETION");
+                refreshInstances();
+                return JobCompletionRequest.fromJSON(request.requestBody()).executor(agentInstances, pluginRequest).execute();
+            case REQUEST_STATUS_REPORT:
+            	LOG.info("REQUEST_STATUS_REPORT");
+                refreshInstances();
+                return new StatusReportExecutor(pluginRequest, agentInstances, ViewBuilder.instance()).execute();
+            case REQUEST_AGENT_STATUS_REPORT:
+            	LOG.info("REQUEST_AGENT_STATUS_REPORT");
+                refreshInstances();
+                return AgentStatusReportRequest.fromJSON(request.requestBody()).executor(pluginRequest, agentInstances, ViewBuilder.instance()).execute();
+            case REQUEST_CAPABILITIES:
+            	LOG.info("REQUEST_CAPABILITIES");
+                return new GetCapabilitiesExecutor().execute();
+            default:
+            	LOG.info("UnhandledRequestTypeException");
+                throw new UnhandledRequestTypeException(request.requestName());
+        }
+    }
+
     private void refreshInstances() {
         try {
-            agentInstances.refreshAll(pluginRequest);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            refreshCoordinator.refresh();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
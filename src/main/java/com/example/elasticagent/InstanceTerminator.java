@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.InstanceStateChange;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Terminates instances with as few TerminateInstances calls as possible, sending up to
+ * {@link #MAX_INSTANCES_PER_CALL} ids per call.
+ * <p>
+ * EC2 rejects a whole call when any one of its ids is invalid, so a chunk that EC2 rejected is split in halves and
+ * retried until the ids that cannot be terminated are isolated. Only those are reported as failed.
+ */
+public class InstanceTerminator {
+    private static final Logger LOG = Logger.getLoggerFor(InstanceTerminator.class);
+
+    static final int MAX_INSTANCES_PER_CALL = 1000;
+    private static final String INSTANCE_NOT_FOUND = "InvalidInstanceID.NotFound";
+
+    private final Supplier<Ec2Client> ec2;
+
+    public InstanceTerminator(Supplier<Ec2Client> ec2) {
+        this.ec2 = ec2;
+    }
+
+    /**
+     * @return the ids that could not be terminated, mapped to the reason. Every other id was terminated
+     * or did not exist anymore.
+     */
+    public Map<String, Exception> terminate(Collection<String> instanceIds) {
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>(new HashSet<>(instanceIds));
+        for (int from = 0; from < ids.size(); from += MAX_INSTANCES_PER_CALL) {
+            terminateChunk(ids.subList(from, Math.min(from + MAX_INSTANCES_PER_CALL, ids.size())), failures);
+        }
+
+        if (!failures.isEmpty()) {
+            LOG.warn("Could not terminate " + failures.size() + " of " + ids.size() + " instances: " + failures.keySet());
+        }
+        return failures;
+    }
+
+    private void terminateChunk(List<String> ids, Map<String, Exception> failures) {
+        try {
+            LOG.info("Sending TerminateInstancesRequest to AWS for " + ids.size() + " instances");
+            TerminateInstancesResponse response = ec2.get().terminateInstances(TerminateInstancesRequest.builder()
+                    .instanceIds(ids)
+                    .build());
+
+            Set<String> terminating = new HashSet<>();
+            for (InstanceStateChange change : response.terminatingInstances()) {
+                terminating.add(change.instanceId());
+            }
+            for (String id : ids) {
+                if (!terminating.contains(id)) {
+                    failures.put(id, new IllegalStateException("EC2 did not report instance " + id + " as terminating"));
+                }
+            }
+        } catch (Exception e) {
+            if (isNotFound(e) && ids.size() == 1) {
+                LOG.warn("Instance " + ids.get(0) + " does not exist anymore, nothing to terminate");
+            } else if (isRejectedRequest(e) && ids.size() > 1) {
+                int half = ids.size() / 2;
+                terminateChunk(ids.subList(0, half), failures);
+                terminateChunk(ids.subList(half, ids.size()), failures);
+            } else {
+                // throttling, credentials or the network, splitting the chunk would only make it worse
+                for (String id : ids) {
+                    failures.put(id, e);
+                }
+            }
+        }
+    }
+
+    // EC2 answers 400 when something in the request itself, such as one of the ids, is invalid
+    private static boolean isRejectedRequest(Exception e) {
+        return e instanceof Ec2Exception && ((Ec2Exception) e).statusCode() == 400;
+    }
+
+    private static boolean isNotFound(Exception e) {
+        return e instanceof Ec2Exception
+                && ((Ec2Exception) e).awsErrorDetails() != null
+                && INSTANCE_NOT_FOUND.equals(((Ec2Exception) e).awsErrorDetails().errorCode());
+    }
+}
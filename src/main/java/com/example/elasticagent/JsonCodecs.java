@@ -0,0 +1,362 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.models.JobIdentifier;
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.requests.JobCompletionRequest;
+import com.example.elasticagent.requests.ShouldAssignWorkRequest;
+import com.example.elasticagent.utils.ReusableStringBuffer;
+import com.google.common.base.Enums;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming codecs for the request bodies the server sends on every job, registered on one shared {@link Gson}.
+ * <p>
+ * Each adapter reads the fields it knows straight off the {@link JsonReader} and skips anything else without
+ * building a tree, so decoding does no reflection and allocates little more than the resulting objects.
+ * Agent lists sent back to the server are encoded with the same adapters into a per-thread buffer.
+ */
+public final class JsonCodecs {
+
+    static final TypeAdapter<Agent> AGENT = new AgentAdapter().nullSafe();
+    static final TypeAdapter<JobIdentifier> JOB_IDENTIFIER = new JobIdentifierAdapter().nullSafe();
+
+    public static final Gson GSON = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .registerTypeAdapter(Agent.class, AGENT)
+            .registerTypeAdapter(JobIdentifier.class, JOB_IDENTIFIER)
+            .registerTypeAdapter(ShouldAssignWorkRequest.class, new ShouldAssignWorkRequestAdapter().nullSafe())
+            .registerTypeAdapter(CreateAgentRequest.class, new CreateAgentRequestAdapter().nullSafe())
+            .registerTypeAdapter(JobCompletionRequest.class, new JobCompletionRequestAdapter().nullSafe())
+            .create();
+
+    private static final ReusableStringBuffer BUFFER = new ReusableStringBuffer();
+
+    private JsonCodecs() {
+    }
+
+    /**
+     * @return the agents as a JSON array, exactly as {@link #GSON} would write them
+     */
+    public static String toJSONArray(Collection<Agent> agents) {
+        try {
+            return BUFFER.write(writer -> {
+                JsonWriter out = GSON.newJsonWriter(writer);
+                out.beginArray();
+                for (Agent agent : agents) {
+                    AGENT.write(out, agent);
+                }
+                out.endArray();
+                out.flush();
+            });
+        } catch (IOException e) {
+            // cannot happen when writing to a StringBuilder
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class AgentAdapter extends TypeAdapter<Agent> {
+        @Override
+        public void write(JsonWriter out, Agent agent) throws IOException {
+            out.beginObject();
+            out.name("agent_id").value(agent.elasticAgentId());
+            out.name("agent_state").value(nameOf(agent.agentState()));
+            out.name("build_state").value(nameOf(agent.buildState()));
+            out.name("config_state").value(nameOf(agent.configState()));
+            out.endObject();
+        }
+
+        @Override
+        public Agent read(JsonReader in) throws IOException {
+            String agentId = null;
+            Agent.AgentState agentState = null;
+            Agent.BuildState buildState = null;
+            Agent.ConfigState configState = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "agent_id":
+                        agentId = nextString(in);
+                        break;
+                    case "agent_state":
+                        agentState = nextEnum(in, Agent.AgentState.class);
+                        break;
+                    case "build_state":
+                        buildState = nextEnum(in, Agent.BuildState.class);
+                        break;
+                    case "config_state":
+                        configState = nextEnum(in, Agent.ConfigState.class);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Agent(agentId, agentState, buildState, configState);
+        }
+    }
+
+    private static class JobIdentifierAdapter extends TypeAdapter<JobIdentifier> {
+        @Override
+        public void write(JsonWriter out, JobIdentifier jobIdentifier) throws IOException {
+            out.beginObject();
+            out.name("pipeline_name").value(jobIdentifier.getPipelineName());
+            out.name("pipeline_counter").value(jobIdentifier.getPipelineCounter());
+            out.name("pipeline_label").value(jobIdentifier.getPipelineLabel());
+            out.name("stage_name").value(jobIdentifier.getStageName());
+            out.name("stage_counter").value(jobIdentifier.getStageCounter());
+            out.name("job_name").value(jobIdentifier.getJobName());
+            out.name("job_id").value(jobIdentifier.getJobId());
+            out.endObject();
+        }
+
+        @Override
+        public JobIdentifier read(JsonReader in) throws IOException {
+            String pipelineName = null;
+            Long pipelineCounter = null;
+            String pipelineLabel = null;
+            String stageName = null;
+            String stageCounter = null;
+            String jobName = null;
+            Long jobId = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "pipeline_name":
+                        pipelineName = nextString(in);
+                        break;
+                    case "pipeline_counter":
+                        pipelineCounter = nextLong(in);
+                        break;
+                    case "pipeline_label":
+                        pipelineLabel = nextString(in);
+                        break;
+                    case "stage_name":
+                        stageName = nextString(in);
+                        break;
+                    case "stage_counter":
+                        stageCounter = nextString(in);
+                        break;
+                    case "job_name":
+                        jobName = nextString(in);
+                        break;
+                    case "job_id":
+                        jobId = nextLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new JobIdentifier(pipelineName, pipelineCounter, pipelineLabel, stageName, stageCounter, jobName, jobId);
+        }
+    }
+
+    private static class ShouldAssignWorkRequestAdapter extends TypeAdapter<ShouldAssignWorkRequest> {
+        @Override
+        public void write(JsonWriter out, ShouldAssignWorkRequest request) throws IOException {
+            out.beginObject();
+            out.name("agent");
+            AGENT.write(out, request.agent());
+            out.name("environment").value(request.environment());
+            out.name("job_identifier");
+            JOB_IDENTIFIER.write(out, request.jobIdentifier());
+            out.name("properties");
+            writeStringMap(out, request.properties());
+            out.endObject();
+        }
+
+        @Override
+        public ShouldAssignWorkRequest read(JsonReader in) throws IOException {
+            Agent agent = null;
+            String environment = null;
+            JobIdentifier jobIdentifier = null;
+            Map<String, String> properties = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "agent":
+                        agent = AGENT.read(in);
+                        break;
+                    case "environment":
+                        environment = nextString(in);
+                        break;
+                    case "job_identifier":
+                        jobIdentifier = JOB_IDENTIFIER.read(in);
+                        break;
+                    case "properties":
+                        properties = nextStringMap(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ShouldAssignWorkRequest(agent, environment, jobIdentifier, properties);
+        }
+    }
+
+    private static class CreateAgentRequestAdapter extends TypeAdapter<CreateAgentRequest> {
+        @Override
+        public void write(JsonWriter out, CreateAgentRequest request) throws IOException {
+            out.beginObject();
+            out.name("auto_register_key").value(request.autoRegisterKey());
+            out.name("properties");
+            writeStringMap(out, request.properties());
+            out.name("environment").value(request.environment());
+            out.name("job_identifier");
+            JOB_IDENTIFIER.write(out, request.jobIdentifier());
+            out.endObject();
+        }
+
+        @Override
+        public CreateAgentRequest read(JsonReader in) throws IOException {
+            String autoRegisterKey = null;
+            Map<String, String> properties = null;
+            String environment = null;
+            JobIdentifier jobIdentifier = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "auto_register_key":
+                        autoRegisterKey = nextString(in);
+                        break;
+                    case "properties":
+                        properties = nextStringMap(in);
+                        break;
+                    case "environment":
+                        environment = nextString(in);
+                        break;
+                    case "job_identifier":
+                        jobIdentifier = JOB_IDENTIFIER.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new CreateAgentRequest(autoRegisterKey, properties, environment, jobIdentifier);
+        }
+    }
+
+    private static class JobCompletionRequestAdapter extends TypeAdapter<JobCompletionRequest> {
+        @Override
+        public void write(JsonWriter out, JobCompletionRequest request) throws IOException {
+            out.beginObject();
+            out.name("elastic_agent_id").value(request.getElasticAgentId());
+            out.name("job_identifier");
+            JOB_IDENTIFIER.write(out, request.jobIdentifier());
+            out.endObject();
+        }
+
+        @Override
+        public JobCompletionRequest read(JsonReader in) throws IOException {
+            String elasticAgentId = null;
+            JobIdentifier jobIdentifier = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "elastic_agent_id":
+                        elasticAgentId = nextString(in);
+                        break;
+                    case "job_identifier":
+                        jobIdentifier = JOB_IDENTIFIER.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new JobCompletionRequest(elasticAgentId, jobIdentifier);
+        }
+    }
+
+    // the same coercions as Gson's own String adapter, so bodies decode exactly as they did reflectively
+    private static String nextString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private static Long nextLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
+
+    // like Gson, a constant that is not known here is read as null rather than failing the whole request
+    private static <E extends Enum<E>> E nextEnum(JsonReader in, Class<E> type) throws IOException {
+        String name = nextString(in);
+        return name == null ? null : Enums.getIfPresent(type, name).orNull();
+    }
+
+    private static Map<String, String> nextStringMap(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            map.put(in.nextName(), nextString(in));
+        }
+        in.endObject();
+        return map;
+    }
+
+    private static void writeStringMap(JsonWriter out, Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.name(entry.getKey()).value(entry.getValue());
+        }
+        out.endObject();
+    }
+
+    private static String nameOf(Enum<?> value) {
+        return value == null ? null : value.name();
+    }
+}
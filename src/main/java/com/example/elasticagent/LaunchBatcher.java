@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces create requests for the same elastic profile that arrive within a short window into a single
+ * RunInstances call, then tags each returned instance with the job it was launched for. An instance that cannot be
+ * tagged is terminated and its launch fails, since an untagged instance would never be matched to its job.
+ */
+public class LaunchBatcher {
+    private static final Logger LOG = Logger.getLoggerFor(LaunchBatcher.class);
+
+    static final long DEFAULT_WINDOW_MILLIS = 250;
+    static final int MAX_BATCH_SIZE = 50;
+    static final int MAX_TAG_ATTEMPTS = 3;
+    static final long TAG_RETRY_BACKOFF_MILLIS = 500;
+
+    private final Supplier<Ec2AsyncClient> ec2;
+    private final long windowMillis;
+    private final ConcurrentHashMap<BatchKey, Batch> openBatches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public LaunchBatcher(Supplier<Ec2AsyncClient> ec2) {
+        this(ec2, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public LaunchBatcher(Supplier<Ec2AsyncClient> ec2, long windowMillis) {
+        this.ec2 = ec2;
+        this.windowMillis = windowMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("elastic-agent-launch-batcher-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * @return a future that completes with the instance launched for this request once its batch has been sent
+     */
+    public CompletableFuture<ExampleInstance> submit(CreateAgentRequest request, PluginSettings settings) {
+        BatchKey key = new BatchKey(request);
+        while (true) {
+            Batch batch = openBatches.get(key);
+            if (batch == null) {
+                Batch newBatch = new Batch(key, settings);
+                batch = openBatches.putIfAbsent(key, newBatch);
+                if (batch == null) {
+                    batch = newBatch;
+                    Batch scheduled = newBatch;
+                    scheduler.schedule(() -> flush(scheduled), windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            CompletableFuture<ExampleInstance> launch = batch.add(request);
+            if (launch != null) {
+                if (batch.size() >= MAX_BATCH_SIZE) {
+                    flush(batch);
+                }
+                return launch;
+            }
+            // the batch was flushed between get() and add(), it has been removed from openBatches by now
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void flush(Batch batch) {
+        if (!batch.close()) {
+            return;
+        }
+        openBatches.remove(batch.key, batch);
+
+        try {
+            launch(batch);
+        } catch (Exception e) {
+            batch.failAll(e);
+        }
+    }
+
+    private void launch(Batch batch) throws Exception {
+        List<CreateAgentRequest> requests = batch.requests;
+        RunInstancesRequest runInstancesRequest = new ExampleInstance.Builder()
+                .createAgentRequest(requests.get(0))
+                .pluginSettings(batch.settings)
+                .count(requests.size())
+                .buildRunInstancesRequest();
+
+        LOG.info("Sending RunInstancesRequest to AWS for " + requests.size() + " jobs");
+        ec2.get().runInstances(runInstancesRequest).whenComplete((response, e) -> {
+            if (e != null) {
+                batch.failAll(e);
+            } else {
+                assign(batch, response);
+            }
+        });
+    }
+
+    private void assign(Batch batch, RunInstancesResponse response) {
+        List<Instance> instances = response.instances();
+        LOG.info(instances.size() + " ec2 instances created for " + batch.requests.size() + " jobs");
+
+        for (int i = 0; i < batch.requests.size(); i++) {
+            CreateAgentRequest request = batch.requests.get(i);
+            CompletableFuture<ExampleInstance> launch = batch.launches.get(i);
+
+            if (i >= instances.size()) {
+                launch.completeExceptionally(new IllegalStateException("EC2 launched " + instances.size() + " of the " + batch.requests.size() + " requested instances"));
+            } else if (batch.requests.size() == 1) {
+                launch.complete(new ExampleInstance(instances.get(0)));
+            } else {
+                tag(instances.get(i), request, launch, 1);
+            }
+        }
+    }
+
+    private void tag(Instance instance, CreateAgentRequest request, CompletableFuture<ExampleInstance> launch, int attempt) {
+        List<Tag> jobTags = new ArrayList<>(request.jobIdentifier().getTagsForInstance());
+
+        ec2.get().createTags(CreateTagsRequest.builder().resources(instance.instanceId()).tags(jobTags).build())
+                .whenComplete((ignored, e) -> {
+                    if (e == null) {
+                        List<Tag> allTags = new ArrayList<>(instance.tags());
+                        allTags.addAll(jobTags);
+                        launch.complete(new ExampleInstance(instance.toBuilder().tags(allTags).build()));
+                    } else if (attempt < MAX_TAG_ATTEMPTS) {
+                        LOG.warn("Could not tag instance " + instance.instanceId() + " for " + request.jobIdentifier() + ", retrying", e);
+                        scheduler.schedule(() -> tag(instance, request, launch, attempt + 1),
+                                TAG_RETRY_BACKOFF_MILLIS << (attempt - 1), TimeUnit.MILLISECONDS);
+                    } else {
+                        LOG.error("Could not tag instance " + instance.instanceId() + " for " + request.jobIdentifier() + ", terminating it", e);
+                        terminate(instance.instanceId());
+                        launch.completeExceptionally(e);
+                    }
+                });
+    }
+
+    private void terminate(String instanceId) {
+        ec2.get().terminateInstances(TerminateInstancesRequest.builder().instanceIds(instanceId).build()).whenComplete((response, e) -> {
+            if (e != null) {
+                LOG.warn("Could not terminate untagged instance " + instanceId, e);
+            }
+        });
+    }
+
+    private static class BatchKey {
+        private final Map<String, String> properties;
+        private final String environment;
+        private final String autoRegisterKey;
+
+        BatchKey(CreateAgentRequest request) {
+            this.properties = request.properties();
+            this.environment = request.environment();
+            this.autoRegisterKey = request.autoRegisterKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BatchKey that = (BatchKey) o;
+            return Objects.equals(properties, that.properties) &&
+                    Objects.equals(environment, that.environment) &&
+                    Objects.equals(autoRegisterKey, that.autoRegisterKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(properties, environment, autoRegisterKey);
+        }
+    }
+
+    private static class Batch {
+        private final BatchKey key;
+        private final PluginSettings settings;
+        private final List<CreateAgentRequest> requests = new ArrayList<>();
+        private final List<CompletableFuture<ExampleInstance>> launches = new ArrayList<>();
+        private boolean closed;
+
+        Batch(BatchKey key, PluginSettings settings) {
+            this.key = key;
+            this.settings = settings;
+        }
+
+        synchronized CompletableFuture<ExampleInstance> add(CreateAgentRequest request) {
+            if (closed) {
+                return null;
+            }
+            CompletableFuture<ExampleInstance> launch = new CompletableFuture<>();
+            requests.add(request);
+            launches.add(launch);
+            return launch;
+        }
+
+        synchronized int size() {
+            return requests.size();
+        }
+
+        synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+
+        void failAll(Throwable e) {
+            for (CompletableFuture<ExampleInstance> launch : launches) {
+                launch.completeExceptionally(e);
+            }
+        }
+    }
+}
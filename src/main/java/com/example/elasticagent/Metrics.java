@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency and error counters for plugin requests, calls to the GoCD server and EC2 operations.
+ * <p>
+ * Latencies go into power-of-two buckets of microseconds, so recording is a handful of {@link LongAdder} increments
+ * and percentiles are accurate to within a factor of two, which is enough to see where time goes.
+ * <p>
+ * The counters are shown in the plugin status report and logged as one JSON line on every server ping, so that a log
+ * shipper can pick them up by the {@link #LOG_LINE_PREFIX}.
+ */
+public class Metrics {
+
+    public static final String REQUEST = "request";
+    public static final String SERVER = "server";
+    public static final String EC2 = "ec2";
+    public static final String LOG_LINE_PREFIX = "elastic-agent-metrics ";
+
+    private static final Logger LOG = Logger.getLoggerFor(Metrics.class);
+
+    private static final Gson GSON = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final long startedAtNanos = System.nanoTime();
+
+    public static Metrics instance() {
+        return INSTANCE;
+    }
+
+    public void record(String type, String name, long elapsedNanos, boolean failed) {
+        String key = type + ":" + name;
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> new Timer(type, name));
+        }
+        timer.record(elapsedNanos, failed);
+    }
+
+    public List<Snapshot> snapshot() {
+        double uptimeMinutes = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAtNanos)) / 60.0;
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Timer timer : timers.values()) {
+            snapshots.add(timer.snapshot(uptimeMinutes));
+        }
+        Collections.sort(snapshots, Comparator.comparing((Snapshot snapshot) -> snapshot.type).thenComparing(snapshot -> snapshot.name));
+        return snapshots;
+    }
+
+    /**
+     * @return the current snapshot as a JSON array, one object per timer
+     */
+    public String toJson() {
+        return GSON.toJson(snapshot());
+    }
+
+    public void log() {
+        LOG.info(logLine());
+    }
+
+    // package-private for tests
+    String logLine() {
+        return LOG_LINE_PREFIX + toJson();
+    }
+
+    private static class Timer {
+        // bucket i counts latencies in [2^(i-1), 2^i) microseconds, bucket 0 those below one microsecond
+        private static final int BUCKETS = 40;
+
+        private final String type;
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Timer(String type, String name) {
+            this.type = type;
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long elapsedNanos, boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+            buckets[bucketOf(elapsedNanos)].increment();
+        }
+
+        Snapshot snapshot(double uptimeMinutes) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long count = this.count.sum();
+            return new Snapshot(type, name, count, errors.sum(), count / uptimeMinutes,
+                    count == 0 ? 0 : millis(totalNanos.sum() / count),
+                    percentile(counts, total, 0.5), percentile(counts, total, 0.9), percentile(counts, total, 0.99),
+                    millis(maxNanos.get()));
+        }
+
+        private static int bucketOf(long elapsedNanos) {
+            long micros = Math.max(0, elapsedNanos / 1000);
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        }
+
+        // the upper bound of the bucket that holds the given quantile
+        private static double percentile(long[] counts, long total, double quantile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (1L << i) / 1000.0;
+                }
+            }
+            return (1L << (counts.length - 1)) / 1000.0;
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    public static class Snapshot {
+        private final String type;
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final double perMinute;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        Snapshot(String type, String name, long count, long errors, double perMinute, double meanMillis,
+                 double p50Millis, double p90Millis, double p99Millis, double maxMillis) {
+            this.type = type;
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.perMinute = perMinute;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public String getPerMinute() {
+            return format(perMinute);
+        }
+
+        public String getMeanMillis() {
+            return format(meanMillis);
+        }
+
+        public String getP50Millis() {
+            return format(p50Millis);
+        }
+
+        public String getP90Millis() {
+            return format(p90Millis);
+        }
+
+        public String getP99Millis() {
+            return format(p99Millis);
+        }
+
+        public String getMaxMillis() {
+            return format(maxMillis);
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+    }
+}
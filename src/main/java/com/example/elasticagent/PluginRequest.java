@@ -22,6 +22,7 @@ import com.thoughtworks.go.plugin.api.request.DefaultGoApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoApiResponse;
 
 import java.util.Collection;
+import java.util.Objects;
 
 import static com.example.elasticagent.Constants.*;
 
@@ -30,26 +31,59 @@ import static com.example.elasticagent.Constants.*;
  * Instances of this class know how to send messages to the GoCD Server.
  */
 public class PluginRequest {
+    // the server saves new settings only after they validated, reads in this window may still see the old ones
+    static final long SETTINGS_SAVE_GRACE_MILLIS = 30_000;
+
     private final GoApplicationAccessor accessor;
+    private volatile CachedSettings cachedSettings;
+    private volatile long invalidatedAt;
+    public Clock clock = Clock.DEFAULT;
 
     public PluginRequest(GoApplicationAccessor accessor) {
         this.accessor = accessor;
     }
 
+    /**
+     * @return the last settings fetched from the server, fetched again once they are older than
+     * {@link PluginSettings#getSettingsRefreshInterval()}. The same instance is returned for as long as the server
+     * returns the same settings, so that anything built from them is only rebuilt on a real change.
+     */
     public PluginSettings getPluginSettings() throws ServerRequestFailedException {
+        long now = clock.now().getMillis();
+        CachedSettings cached = this.cachedSettings;
+        if (cached != null && now < cached.expiresAt) {
+            return cached.settings;
+        }
+
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_GET_PLUGIN_SETTINGS, PLUGIN_SETTINGS_PROCESSOR_API_VERSION, PLUGIN_IDENTIFIER);
-        GoApiResponse response = accessor.submit(request);
+        GoApiResponse response = submit(request);
 
         if (response.responseCode() != 200) {
             throw ServerRequestFailedException.getPluginSettings(response);
         }
 
-        return PluginSettings.fromJSON(response.responseBody());
+        String body = response.responseBody();
+        PluginSettings settings = cached != null && Objects.equals(cached.body, body) ? cached.settings : PluginSettings.fromJSON(body);
+        if (settings == null) {
+            return null;
+        }
+
+        long expiresAt = now < invalidatedAt + SETTINGS_SAVE_GRACE_MILLIS ? now : now + settings.getSettingsRefreshInterval().toMillis();
+        this.cachedSettings = new CachedSettings(body, settings, expiresAt);
+        return settings;
+    }
+
+    /**
+     * Drops the cached settings, called when settings are being validated because they are about to be saved.
+     */
+    public void invalidatePluginSettings() {
+        invalidatedAt = clock.now().getMillis();
+        cachedSettings = null;
     }
 
     public ServerInfo getServerInfo() throws ServerRequestFailedException {
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_INFO, SERVER_INFO_PROCESSOR_API_VERSION, PLUGIN_IDENTIFIER);
-        GoApiResponse response = accessor.submit(request);
+        GoApiResponse response = submit(request);
 
         if (response.responseCode() != 200) {
             throw ServerRequestFailedException.serverInfo(response);
@@ -60,7 +94,7 @@ public class PluginRequest {
 
     public Agents listAgents() throws ServerRequestFailedException {
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_LIST_AGENTS, ELASTIC_PROCESSOR_API_VERSION, PLUGIN_IDENTIFIER);
-        GoApiResponse response = accessor.submit(request);
+        GoApiResponse response = submit(request);
 
         if (response.responseCode() != 200) {
             throw ServerRequestFailedException.listAgents(response);
@@ -77,7 +111,7 @@ public class PluginRequest {
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_DISABLE_AGENT, ELASTIC_PROCESSOR_API_VERSION, PLUGIN_IDENTIFIER);
         request.setRequestBody(Agent.toJSONArray(toBeDisabled));
 
-        GoApiResponse response = accessor.submit(request);
+        GoApiResponse response = submit(request);
 
         if (response.responseCode() != 200) {
             throw ServerRequestFailedException.disableAgents(response);
@@ -91,10 +125,34 @@ public class PluginRequest {
 
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_DELETE_AGENT, ELASTIC_PROCESSOR_API_VERSION, PLUGIN_IDENTIFIER);
         request.setRequestBody(Agent.toJSONArray(toBeDeleted));
-        GoApiResponse response = accessor.submit(request);
+        GoApiResponse response = submit(request);
 
         if (response.responseCode() != 200) {
             throw ServerRequestFailedException.deleteAgents(response);
         }
     }
+
+    private GoApiResponse submit(DefaultGoApiRequest request) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            GoApiResponse response = accessor.submit(request);
+            failed = response.responseCode() != 200;
+            return response;
+        } finally {
+            Metrics.instance().record(Metrics.SERVER, request.api(), System.nanoTime() - start, failed);
+        }
+    }
+
+    private static class CachedSettings {
+        private final String body;
+        private final PluginSettings settings;
+        private final long expiresAt;
+
+        CachedSettings(String body, PluginSettings settings, long expiresAt) {
+            this.body = body;
+            this.settings = settings;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
@@ -21,8 +21,12 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
+import org.apache.commons.lang3.StringUtils;
 import org.joda.time.Period;
 
+import java.time.Duration;
+import java.util.Objects;
+
 // TODO: Implement any settings that your plugin needs
 public class PluginSettings {
     public static final Gson GSON = new GsonBuilder()
@@ -51,8 +55,54 @@ public class PluginSettings {
     @SerializedName("api_url")
     private String apiUrl;
 
+    @Expose
+    @SerializedName("instance_refresh_interval")
+    private String instanceRefreshInterval;
+
+    @Expose
+    @SerializedName("ec2_max_connections")
+    private String ec2MaxConnections;
+
+    @Expose
+    @SerializedName("ec2_connection_timeout")
+    private String ec2ConnectionTimeout;
+
+    @Expose
+    @SerializedName("ec2_socket_timeout")
+    private String ec2SocketTimeout;
+
+    @Expose
+    @SerializedName("ec2_connection_max_idle_time")
+    private String ec2ConnectionMaxIdleTime;
+
+    @Expose
+    @SerializedName("ec2_tcp_keep_alive")
+    private String ec2TcpKeepAlive;
+
+    @Expose
+    @SerializedName("settings_refresh_interval")
+    private String settingsRefreshInterval;
+
+    @Expose
+    @SerializedName("go_agent_version")
+    private String goAgentVersion;
+
+    @Expose
+    @SerializedName("warm_pool_size")
+    private String warmPoolSize;
+
+    @Expose
+    @SerializedName("max_jobs_per_instance")
+    private String maxJobsPerInstance;
+
+    @Expose
+    @SerializedName("idle_agent_keep_alive")
+    private String idleAgentKeepAlive;
+
     private Period autoRegisterPeriod;
 
+    private Period instanceRefreshPeriod;
+
     public static PluginSettings fromJSON(String json) {
         return GSON.fromJson(json, PluginSettings.class);
     }
@@ -64,22 +114,37 @@ public class PluginSettings {
 
         PluginSettings that = (PluginSettings) o;
 
-        if (goServerUrl != null ? !goServerUrl.equals(that.goServerUrl) : that.goServerUrl != null) return false;
-        if (autoRegisterTimeout != null ? !autoRegisterTimeout.equals(that.autoRegisterTimeout) : that.autoRegisterTimeout != null)
-            return false;
-        if (apiUser != null ? !apiUser.equals(that.apiUser) : that.apiUser != null) return false;
-        if (apiKey != null ? !apiKey.equals(that.apiKey) : that.apiKey != null) return false;
-        return apiUrl != null ? apiUrl.equals(that.apiUrl) : that.apiUrl == null;
+        return Objects.equals(goServerUrl, that.goServerUrl) &&
+                Objects.equals(autoRegisterTimeout, that.autoRegisterTimeout) &&
+                Objects.equals(apiUser, that.apiUser) &&
+                Objects.equals(apiKey, that.apiKey) &&
+                Objects.equals(apiUrl, that.apiUrl) &&
+                Objects.equals(instanceRefreshInterval, that.instanceRefreshInterval) &&
+                Objects.equals(settingsRefreshInterval, that.settingsRefreshInterval) &&
+                Objects.equals(goAgentVersion, that.goAgentVersion) &&
+                Objects.equals(warmPoolSize, that.warmPoolSize) &&
+                Objects.equals(maxJobsPerInstance, that.maxJobsPerInstance) &&
+                Objects.equals(idleAgentKeepAlive, that.idleAgentKeepAlive) &&
+                hasSameTransportAs(that);
+    }
+
+    /**
+     * @return true if the EC2 clients built from these settings would be configured exactly like those built from the other
+     */
+    public boolean hasSameTransportAs(PluginSettings that) {
+        return that != null &&
+                Objects.equals(ec2MaxConnections, that.ec2MaxConnections) &&
+                Objects.equals(ec2ConnectionTimeout, that.ec2ConnectionTimeout) &&
+                Objects.equals(ec2SocketTimeout, that.ec2SocketTimeout) &&
+                Objects.equals(ec2ConnectionMaxIdleTime, that.ec2ConnectionMaxIdleTime) &&
+                Objects.equals(ec2TcpKeepAlive, that.ec2TcpKeepAlive);
     }
 
     @Override
     public int hashCode() {
-        int result = goServerUrl != null ? goServerUrl.hashCode() : 0;
-        result = 31 * result + (autoRegisterTimeout != null ? autoRegisterTimeout.hashCode() : 0);
-        result = 31 * result + (apiUser != null ? apiUser.hashCode() : 0);
-        result = 31 * result + (apiKey != null ? apiKey.hashCode() : 0);
-        result = 31 * result + (apiUrl != null ? apiUrl.hashCode() : 0);
-        return result;
+        return Objects.hash(goServerUrl, autoRegisterTimeout, apiUser, apiKey, apiUrl, instanceRefreshInterval,
+                settingsRefreshInterval, goAgentVersion, warmPoolSize, maxJobsPerInstance, idleAgentKeepAlive,
+                ec2MaxConnections, ec2ConnectionTimeout, ec2SocketTimeout, ec2ConnectionMaxIdleTime, ec2TcpKeepAlive);
     }
 
     public Period getAutoRegisterPeriod() {
@@ -96,6 +161,79 @@ public class PluginSettings {
         return autoRegisterTimeout;
     }
 
+    public Period getInstanceRefreshPeriod() {
+        if (this.instanceRefreshPeriod == null) {
+            this.instanceRefreshPeriod = new Period().withSeconds(Integer.parseInt(getInstanceRefreshInterval()));
+        }
+        return this.instanceRefreshPeriod;
+    }
+
+    private String getInstanceRefreshInterval() {
+        if (StringUtils.isBlank(instanceRefreshInterval)) {
+            instanceRefreshInterval = "60";
+        }
+        return instanceRefreshInterval;
+    }
+
+    public int getEc2MaxConnections() {
+        return intOrDefault(ec2MaxConnections, 50);
+    }
+
+    public Duration getEc2ConnectionTimeout() {
+        return Duration.ofSeconds(intOrDefault(ec2ConnectionTimeout, 10));
+    }
+
+    public Duration getEc2SocketTimeout() {
+        return Duration.ofSeconds(intOrDefault(ec2SocketTimeout, 30));
+    }
+
+    public Duration getEc2ConnectionMaxIdleTime() {
+        return Duration.ofSeconds(intOrDefault(ec2ConnectionMaxIdleTime, 60));
+    }
+
+    public Duration getSettingsRefreshInterval() {
+        return Duration.ofSeconds(intOrDefault(settingsRefreshInterval, 60));
+    }
+
+    /**
+     * @return the full GoCD version, including the build number, of the agent installed on new instances
+     */
+    public String getGoAgentVersion() {
+        return StringUtils.isBlank(goAgentVersion) ? "18.11.0-8024" : goAgentVersion.trim();
+    }
+
+    /**
+     * @return how many stopped instances to keep ready for each elastic profile, 0 when there is no warm pool
+     */
+    public int getWarmPoolSize() {
+        return intOrDefault(warmPoolSize, 0);
+    }
+
+    /**
+     * @return how many jobs an instance runs before it is terminated, agents are only reused when this is more than 1
+     */
+    public int getMaxJobsPerInstance() {
+        return intOrDefault(maxJobsPerInstance, 1);
+    }
+
+    /**
+     * @return how long an agent that finished a job waits for another one before it is terminated
+     */
+    public Duration getIdleAgentKeepAlive() {
+        return Duration.ofSeconds(intOrDefault(idleAgentKeepAlive, 300));
+    }
+
+    public boolean getEc2TcpKeepAlive() {
+        return StringUtils.isBlank(ec2TcpKeepAlive) || Boolean.parseBoolean(ec2TcpKeepAlive.trim());
+    }
+
+    private static int intOrDefault(String value, int defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
     public String getApiUser() {
         return apiUser;
     }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Guards {@link AgentInstances#refreshAll(PluginRequest)} so that it is not run on every plugin request.
+ * <p>
+ * Concurrent callers share a single in-flight refresh, and a refresh is skipped entirely while the last one is
+ * younger than {@link PluginSettings#getInstanceRefreshPeriod()}. A failed refresh leaves the registry as the last
+ * successful one left it, and the next attempt waits for a backoff that doubles with every consecutive failure.
+ */
+public class RefreshCoordinator {
+    private static final Logger LOG = Logger.getLoggerFor(RefreshCoordinator.class);
+
+    static final long INITIAL_BACKOFF_MILLIS = 1_000;
+    static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private final AgentInstances agentInstances;
+    private final PluginRequest pluginRequest;
+    private final ExecutorService backgroundExecutor;
+    private final AtomicReference<CompletableFuture<Void>> inFlight = new AtomicReference<>();
+
+    private volatile long lastRefreshedAt;
+    private volatile long refreshPeriodMillis;
+    private volatile long retryAt;
+    private volatile int consecutiveFailures;
+    public Clock clock = Clock.DEFAULT;
+
+    public RefreshCoordinator(AgentInstances agentInstances, PluginRequest pluginRequest) {
+        this.agentInstances = agentInstances;
+        this.pluginRequest = pluginRequest;
+        this.backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("elastic-agent-refresh-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Refreshes the instances unless they are still fresh, blocking until the refresh (either started by this
+     * call or already in flight) has completed. A failure is logged, callers carry on with the registry as it is.
+     */
+    public void refresh() throws InterruptedException {
+        if (isFresh() || isBackingOff()) {
+            return;
+        }
+
+        try {
+            refreshAsync(Runnable::run).get();
+        } catch (ExecutionException e) {
+            LOG.warn("Refresh of agent instances failed, using the instances from the last refresh", e.getCause());
+        }
+    }
+
+    /**
+     * Starts a refresh on a background thread if the instances are stale and returns immediately.
+     * Used on paths such as should-assign-work which must never wait for the cloud provider.
+     */
+    public void refreshInBackground() {
+        if (isFresh() || isBackingOff()) {
+            return;
+        }
+
+        refreshAsync(backgroundExecutor).whenComplete((ignored, e) -> {
+            if (e != null) {
+                LOG.warn("Background refresh of agent instances failed", e);
+            }
+        });
+    }
+
+    public boolean isFresh() {
+        long lastRefreshedAt = this.lastRefreshedAt;
+        return lastRefreshedAt != 0 && clock.now().getMillis() < lastRefreshedAt + refreshPeriodMillis;
+    }
+
+    public boolean isBackingOff() {
+        return clock.now().getMillis() < retryAt;
+    }
+
+    public void shutdown() {
+        backgroundExecutor.shutdownNow();
+    }
+
+    private CompletableFuture<Void> refreshAsync(Executor executor) {
+        while (true) {
+            CompletableFuture<Void> current = inFlight.get();
+            if (current != null) {
+                return current;
+            }
+
+            CompletableFuture<Void> refresh = new CompletableFuture<>();
+            if (inFlight.compareAndSet(null, refresh)) {
+                executor.execute(() -> run(refresh));
+                return refresh;
+            }
+        }
+    }
+
+    private void run(CompletableFuture<Void> refresh) {
+        try {
+            PluginSettings settings = pluginRequest.getPluginSettings();
+            agentInstances.refreshAll(pluginRequest);
+            refreshPeriodMillis = settings.getInstanceRefreshPeriod().toStandardDuration().getMillis();
+            lastRefreshedAt = clock.now().getMillis();
+            consecutiveFailures = 0;
+            retryAt = 0;
+            inFlight.compareAndSet(refresh, null);
+            refresh.complete(null);
+        } catch (Throwable e) {
+            int failures = ++consecutiveFailures;
+            long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+            retryAt = clock.now().getMillis() + backoffMillis;
+            inFlight.compareAndSet(refresh, null);
+            refresh.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Tracks when each instance has to have auto-registered by. Instances wait ordered by launch time, and each one is
+ * handed out once when its deadline passes, so the cost of expiring grows with the deadlines that actually passed
+ * rather than with the number of instances. Callers settle the instances that turned out to be registered, and keep
+ * expired the ones they have to look at again on the next call.
+ * <p>
+ * The deadline is launch time plus {@link PluginSettings#getAutoRegisterPeriod()}, which is only applied when
+ * expiring so that a change to the setting takes effect on the next server ping.
+ */
+public class RegistrationDeadlines {
+
+    private final ConcurrentSkipListSet<Entry> waiting = new ConcurrentSkipListSet<>();
+    private final Set<String> expired = ConcurrentHashMap.newKeySet();
+    private final Set<String> settled = ConcurrentHashMap.newKeySet();
+
+    public void track(String instanceId, long launchedAtMillis) {
+        if (!expired.contains(instanceId) && !settled.contains(instanceId)) {
+            waiting.add(new Entry(launchedAtMillis, instanceId));
+        }
+    }
+
+    public void untrack(String instanceId, long launchedAtMillis) {
+        waiting.remove(new Entry(launchedAtMillis, instanceId));
+        expired.remove(instanceId);
+        settled.remove(instanceId);
+    }
+
+    /**
+     * Hands the instance out again on the next call to {@link #expire}.
+     */
+    public void keepExpired(String instanceId) {
+        expired.add(instanceId);
+    }
+
+    /**
+     * Stops tracking the deadline of an instance that has registered, until it is untracked.
+     */
+    public void settle(String instanceId) {
+        settled.add(instanceId);
+    }
+
+    /**
+     * Takes every instance launched more than <code>timeoutMillis</code> before <code>nowMillis</code>, together
+     * with the instances kept expired since the last call.
+     *
+     * @return the expired instances, which are no longer tracked unless they are kept expired or tracked again
+     */
+    public List<String> expire(long nowMillis, long timeoutMillis) {
+        Entry head;
+        while ((head = first()) != null && head.launchedAtMillis + timeoutMillis <= nowMillis) {
+            if (waiting.remove(head)) {
+                expired.add(head.instanceId);
+            }
+        }
+
+        List<String> drained = new ArrayList<>();
+        for (String instanceId : expired) {
+            if (expired.remove(instanceId)) {
+                drained.add(instanceId);
+            }
+        }
+        return drained;
+    }
+
+    // unlike first(), does not throw when another thread empties the set concurrently
+    private Entry first() {
+        return waiting.ceiling(Entry.FIRST);
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        static final Entry FIRST = new Entry(Long.MIN_VALUE, "");
+
+        private final long launchedAtMillis;
+        private final String instanceId;
+
+        Entry(long launchedAtMillis, String instanceId) {
+            this.launchedAtMillis = launchedAtMillis;
+            this.instanceId = instanceId;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byLaunch = Long.compare(launchedAtMillis, other.launchedAtMillis);
+            return byLaunch != 0 ? byLaunch : instanceId.compareTo(other.instanceId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && compareTo((Entry) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(launchedAtMillis) * 31 + instanceId.hashCode();
+        }
+    }
+}
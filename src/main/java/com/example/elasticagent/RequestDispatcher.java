@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs plugin requests on bounded pools, one per {@link Request.Category}, so that a slow dependency can only tie up
+ * the requests of its own category and never all of the server's plugin threads.
+ * <p>
+ * Each request gets a deadline. A request that misses it, or that finds its pool and queue full, is answered with
+ * a degraded response instead of waiting: should-assign-work declines the work, a server ping is skipped until the
+ * next one, and every other request fails with an error that the server retries. Lifecycle requests that miss their
+ * deadline keep running in the background, interrupting them could leave an instance launched or terminated half way.
+ * A server ping that arrives while the previous one is still running is skipped rather than queued behind it.
+ */
+public class RequestDispatcher {
+    private static final Logger LOG = Logger.getLoggerFor(RequestDispatcher.class);
+
+    /**
+     * Requests answered from memory. Should-assign-work is asked for every idle agent on every scheduling pass, so
+     * the queue absorbs such a burst, and a request that takes seconds is better declined than waited for.
+     */
+    static final Limits FAST_LIMITS = new Limits(8, 64, TimeUnit.SECONDS.toMillis(5));
+
+    /**
+     * Requests that call EC2 and the server. They mostly wait on the network, and EC2 throttles an account's API
+     * calls long before more threads would help. The deadline covers a refresh plus a launch or termination on a
+     * throttled account. Work that misses it keeps its thread until it finishes, which is why pings do not overlap.
+     */
+    static final Limits LIFECYCLE_LIMITS = new Limits(4, 32, TimeUnit.SECONDS.toMillis(60));
+
+    /**
+     * Status reports are rendered for a person looking at a page, two at a time are plenty and nobody waits longer.
+     */
+    static final Limits REPORT_LIMITS = new Limits(2, 8, TimeUnit.SECONDS.toMillis(30));
+
+    private final Map<Request.Category, Pool> pools = new EnumMap<>(Request.Category.class);
+    // requests that must not overlap with themselves
+    private final Set<Request> running = ConcurrentHashMap.newKeySet();
+
+    public RequestDispatcher() {
+        this(FAST_LIMITS, LIFECYCLE_LIMITS, REPORT_LIMITS);
+    }
+
+    RequestDispatcher(Limits fast, Limits lifecycle, Limits report) {
+        pools.put(Request.Category.FAST, new Pool("fast", fast));
+        pools.put(Request.Category.LIFECYCLE, new Pool("lifecycle", lifecycle));
+        pools.put(Request.Category.REPORT, new Pool("report", report));
+    }
+
+    public GoPluginApiResponse dispatch(Request request, Callable<GoPluginApiResponse> execution) throws Exception {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            GoPluginApiResponse response = dispatchToPool(request, execution);
+            failed = response.responseCode() >= 500;
+            return response;
+        } finally {
+            Metrics.instance().record(Metrics.REQUEST, request.name(), System.nanoTime() - start, failed);
+        }
+    }
+
+    private GoPluginApiResponse dispatchToPool(Request request, Callable<GoPluginApiResponse> execution) throws Exception {
+        if (request != Request.REQUEST_SERVER_PING) {
+            return submit(request, execution, () -> {});
+        }
+
+        // a later ping repeats all of the work of an earlier one, so it is skipped while the earlier one still runs
+        if (!running.add(request)) {
+            LOG.warn("The previous " + request + " is still running, skipping this one");
+            return degraded(request, "The previous " + request + " is still running");
+        }
+        // released before the response is handed back, so the next ping never finds it still set
+        return submit(request, () -> {
+            try {
+                return execution.call();
+            } finally {
+                running.remove(request);
+            }
+        }, () -> running.remove(request));
+    }
+
+    /**
+     * @param onRejected run when the pool rejects the execution, which then never runs
+     */
+    private GoPluginApiResponse submit(Request request, Callable<GoPluginApiResponse> execution, Runnable onRejected) throws Exception {
+        Pool pool = pools.get(request.category());
+
+        Future<GoPluginApiResponse> future;
+        try {
+            future = pool.executor.submit(execution);
+        } catch (RejectedExecutionException e) {
+            onRejected.run();
+            LOG.warn("The " + pool.name + " request pool is saturated, degrading " + request);
+            return degraded(request, "The plugin is too busy to handle " + request + ", try again later");
+        }
+
+        try {
+            return future.get(pool.limits.deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (request.category() != Request.Category.LIFECYCLE) {
+                future.cancel(true);
+            }
+            // lifecycle work is left to finish, even when it is still queued
+            LOG.warn(request + " did not complete within " + pool.limits.deadlineMillis + "ms, degrading it");
+            return degraded(request, request + " did not complete within " + pool.limits.deadlineMillis + "ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        for (Pool pool : pools.values()) {
+            pool.executor.shutdownNow();
+        }
+    }
+
+    private static GoPluginApiResponse degraded(Request request, String message) {
+        // counted on its own so that declined work shows up even where the degraded answer is a success
+        Metrics.instance().record(Metrics.REQUEST, request.name() + ".degraded", 0, true);
+        switch (request) {
+            case REQUEST_SHOULD_ASSIGN_WORK:
+                return DefaultGoPluginApiResponse.success("false");
+            case REQUEST_SERVER_PING:
+                return DefaultGoPluginApiResponse.success("");
+            default:
+                return new DefaultGoPluginApiResponse(500, message);
+        }
+    }
+
+    static class Limits {
+        final int threads;
+        final int queueCapacity;
+        final long deadlineMillis;
+
+        Limits(int threads, int queueCapacity, long deadlineMillis) {
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+
+    private static class Pool {
+        final String name;
+        final Limits limits;
+        final ThreadPoolExecutor executor;
+
+        Pool(String name, Limits limits) {
+            this.name = name;
+            this.limits = limits;
+            this.executor = new ThreadPoolExecutor(limits.threads, limits.threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(limits.queueCapacity),
+                    new ThreadFactoryBuilder().setNameFormat("elastic-agent-" + name + "-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.views.TemplateEngine;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates the user data that installs and starts a GoCD agent on a new instance.
+ * <p>
+ * Each platform has compiled templates under <code>user-data/</code>: one that downloads and installs the agent on
+ * every boot, and one for images that already have the agent installed, which only writes the autoregister
+ * properties and starts the agent. Images of the latter kind are prepared with {@link #amiPreparationScript}.
+ * <p>
+ * Everything but the autoregister properties depends only on the plugin settings, so that part is rendered once per
+ * template and settings and cached as the text before and after the properties.
+ */
+public class UserDataGenerator {
+
+    /**
+     * EC2 rejects user data larger than this, measured before base64 encoding.
+     */
+    public static final int MAX_USER_DATA_BYTES = 16 * 1024;
+
+    static final String AUTOREGISTER_PROPERTIES_MARKER = "@@autoregister-properties@@";
+    // settings rarely change, this only guards against growing forever across many changes
+    private static final int MAX_CACHED_SKELETONS = 64;
+
+    private static final UserDataGenerator INSTANCE = new UserDataGenerator(TemplateEngine.instance());
+
+    public enum Platform {
+        WINDOWS("windows", "Windows", "user-data/windows-powershell", "win/go-agent-%1$s-jre-64bit-setup.exe",
+                "$instanceId", "$hostName", "\r\n", false, false),
+        // the Linux templates write the properties through a quoted heredoc so the shell expands nothing in them, and
+        // append the instance id and host name themselves
+        LINUX_SHELL("linux-shell", "Linux", "user-data/linux-shell", "generic/go-agent-%1$s.zip",
+                null, null, "\n", true, true),
+        // the properties end up inside an indented YAML block, every line after the first keeps the indentation
+        LINUX_CLOUD_INIT("linux-cloud-init", "Linux", "user-data/linux-cloud-init", "generic/go-agent-%1$s.zip",
+                null, null, "\n      ", true, true);
+
+        private final String profileValue;
+        private final String operatingSystem;
+        private final String templatePrefix;
+        private final String installerPath;
+        private final String instanceIdVariable;
+        private final String hostNameVariable;
+        private final String lineSeparator;
+        private final boolean gzip;
+        private final boolean shellQuoted;
+
+        Platform(String profileValue, String operatingSystem, String templatePrefix, String installerPath, String instanceIdVariable,
+                 String hostNameVariable, String lineSeparator, boolean gzip, boolean shellQuoted) {
+            this.profileValue = profileValue;
+            this.operatingSystem = operatingSystem;
+            this.templatePrefix = templatePrefix;
+            this.installerPath = installerPath;
+            this.instanceIdVariable = instanceIdVariable;
+            this.hostNameVariable = hostNameVariable;
+            this.lineSeparator = lineSeparator;
+            this.gzip = gzip;
+            this.shellQuoted = shellQuoted;
+        }
+
+        public String profileValue() {
+            return profileValue;
+        }
+
+        public String operatingSystem() {
+            return operatingSystem;
+        }
+
+        String template(InstallMode installMode) {
+            return templatePrefix + installMode.templateSuffix + ".mustache";
+        }
+
+        String amiPreparationTemplate() {
+            return "user-data/" + operatingSystem.toLowerCase(Locale.ROOT) + "-ami-preparation.mustache";
+        }
+
+        /**
+         * @return the value as the template should embed it, single quoted for a POSIX shell so that nothing in it is expanded
+         */
+        String quote(String value) {
+            if (!shellQuoted || value == null) {
+                return value;
+            }
+            return "'" + value.replace("'", "'\\''") + "'";
+        }
+
+        String defaultDownloadUrl(String agentVersion) {
+            return "https://download.gocd.org/binaries/" + agentVersion + "/" + String.format(Locale.ROOT, installerPath, agentVersion);
+        }
+
+        /**
+         * @return the platform named by the elastic profile, Windows if none is named
+         */
+        public static Platform fromProfileValue(String value) {
+            if (StringUtils.isBlank(value)) {
+                return WINDOWS;
+            }
+            for (Platform platform : values()) {
+                if (platform.profileValue.equalsIgnoreCase(value.trim())) {
+                    return platform;
+                }
+            }
+            throw new IllegalArgumentException("Unknown platform \"" + value + "\", expected one of " + profileValues());
+        }
+
+        public static List<String> profileValues() {
+            List<String> profileValues = new ArrayList<>();
+            for (Platform platform : values()) {
+                profileValues.add(platform.profileValue);
+            }
+            return profileValues;
+        }
+    }
+
+    public enum InstallMode {
+        // downloads and installs the agent on every boot
+        DOWNLOAD("download", ""),
+        // expects an image prepared with the AMI preparation script, only configures and starts the agent
+        PREINSTALLED("preinstalled", "-preinstalled");
+
+        private final String profileValue;
+        private final String templateSuffix;
+
+        InstallMode(String profileValue, String templateSuffix) {
+            this.profileValue = profileValue;
+            this.templateSuffix = templateSuffix;
+        }
+
+        /**
+         * @return the install mode named by the elastic profile, download if none is named
+         */
+        public static InstallMode fromProfileValue(String value) {
+            if (StringUtils.isBlank(value)) {
+                return DOWNLOAD;
+            }
+            for (InstallMode installMode : values()) {
+                if (installMode.profileValue.equalsIgnoreCase(value.trim())) {
+                    return installMode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown agent install mode \"" + value + "\", expected one of " + profileValues());
+        }
+
+        public static List<String> profileValues() {
+            List<String> profileValues = new ArrayList<>();
+            for (InstallMode installMode : values()) {
+                profileValues.add(installMode.profileValue);
+            }
+            return profileValues;
+        }
+    }
+
+    private final TemplateEngine templateEngine;
+    private final ConcurrentHashMap<SkeletonKey, Skeleton> skeletons = new ConcurrentHashMap<>();
+
+    public static UserDataGenerator instance() {
+        return INSTANCE;
+    }
+
+    UserDataGenerator(TemplateEngine templateEngine) {
+        this.templateEngine = templateEngine;
+    }
+
+    /**
+     * @param agentDownloadUrl where to download the agent from, blank for the GoCD download site
+     * @return the user data, base64 encoded as RunInstances expects it
+     */
+    public String generate(Platform platform, InstallMode installMode, CreateAgentRequest request, PluginSettings settings, String agentDownloadUrl) {
+        Skeleton skeleton = skeleton(new SkeletonKey(platform.template(installMode), platform.quote(settings.getGoServerUrl()),
+                platform.quote(downloadUrl(platform, settings, agentDownloadUrl))));
+        String properties = request.autoregisterPropertiesAsString(platform.instanceIdVariable, platform.hostNameVariable, platform.lineSeparator);
+
+        String script = new StringBuilder(skeleton.length() + properties.length())
+                .append(skeleton.prefix)
+                .append(properties)
+                .append(skeleton.suffix)
+                .toString();
+
+        byte[] userData = script.getBytes(StandardCharsets.UTF_8);
+        if (platform.gzip) {
+            userData = gzip(userData);
+        }
+        if (userData.length > MAX_USER_DATA_BYTES) {
+            throw new IllegalArgumentException("The " + platform.profileValue + " user data is " + userData.length
+                    + " bytes, EC2 accepts at most " + MAX_USER_DATA_BYTES);
+        }
+        return Base64.getEncoder().encodeToString(userData);
+    }
+
+    /**
+     * @return the script that installs the agent without starting it, to be run once on an instance that an image
+     * for {@link InstallMode#PREINSTALLED} is then created from
+     */
+    public String amiPreparationScript(Platform platform, PluginSettings settings, String agentDownloadUrl) {
+        return templateEngine.render(platform.amiPreparationTemplate(),
+                model(platform.quote(settings.getGoServerUrl()), platform.quote(downloadUrl(platform, settings, agentDownloadUrl))));
+    }
+
+    private static String downloadUrl(Platform platform, PluginSettings settings, String agentDownloadUrl) {
+        return StringUtils.isBlank(agentDownloadUrl) ? platform.defaultDownloadUrl(settings.getGoAgentVersion()) : agentDownloadUrl.trim();
+    }
+
+    private static Map<String, String> model(String goServerUrl, String agentDownloadUrl) {
+        Map<String, String> model = new HashMap<>();
+        model.put("goServerUrl", goServerUrl);
+        model.put("agentDownloadUrl", agentDownloadUrl);
+        return model;
+    }
+
+    private Skeleton skeleton(SkeletonKey key) {
+        Skeleton skeleton = skeletons.get(key);
+        if (skeleton != null) {
+            return skeleton;
+        }
+        if (skeletons.size() >= MAX_CACHED_SKELETONS) {
+            skeletons.clear();
+        }
+        return skeletons.computeIfAbsent(key, this::render);
+    }
+
+    private Skeleton render(SkeletonKey key) {
+        Map<String, String> model = model(key.goServerUrl, key.agentDownloadUrl);
+        model.put("autoregisterProperties", AUTOREGISTER_PROPERTIES_MARKER);
+
+        String rendered = templateEngine.render(key.template, model);
+        int marker = rendered.indexOf(AUTOREGISTER_PROPERTIES_MARKER);
+        if (marker < 0) {
+            throw new IllegalStateException(key.template + " does not place the autoregister properties");
+        }
+        return new Skeleton(rendered.substring(0, marker), rendered.substring(marker + AUTOREGISTER_PROPERTIES_MARKER.length()));
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static class Skeleton {
+        private final String prefix;
+        private final String suffix;
+
+        Skeleton(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        int length() {
+            return prefix.length() + suffix.length();
+        }
+    }
+
+    private static class SkeletonKey {
+        private final String template;
+        private final String goServerUrl;
+        private final String agentDownloadUrl;
+
+        SkeletonKey(String template, String goServerUrl, String agentDownloadUrl) {
+            this.template = template;
+            this.goServerUrl = goServerUrl;
+            this.agentDownloadUrl = agentDownloadUrl;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SkeletonKey that = (SkeletonKey) o;
+            return Objects.equals(template, that.template) &&
+                    Objects.equals(goServerUrl, that.goServerUrl) &&
+                    Objects.equals(agentDownloadUrl, that.agentDownloadUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(template, goServerUrl, agentDownloadUrl);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.joda.time.Period;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.model.BlobAttributeValue;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.ModifyInstanceAttributeRequest;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StartInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps stopped instances ready for each elastic profile, so that a job starts one of them instead of waiting for a
+ * new instance to be provisioned and booted.
+ * <p>
+ * Pool instances are launched without user data and tagged with {@link #WARM_POOL_TAG}. The registry hands every
+ * listed pool instance to {@link #observe} instead of registering it, which stops the instance once it is running
+ * and makes it available once it has stopped. Claiming one sets the job's user data, retags it for the job and
+ * starts it. A profile is only known from its create requests, so its pool is filled after its first job.
+ */
+public class WarmPool {
+    private static final Logger LOG = Logger.getLoggerFor(WarmPool.class);
+
+    public static final String WARM_POOL_TAG = "elastic-agent-warm-pool";
+
+    // pool instances that have not stopped by then are assumed lost, and replaced
+    private static final long WARM_UP_TIMEOUT_MILLIS = Period.minutes(10).toStandardDuration().getMillis();
+
+    private final Supplier<Ec2AsyncClient> ec2;
+    private final ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<>();
+    // claimed instances keep the pool tag until EC2 has applied the retagging, listings in between must not return them to the pool
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private volatile int size;
+    public Clock clock = Clock.DEFAULT;
+
+    public WarmPool(Supplier<Ec2AsyncClient> ec2) {
+        this.ec2 = ec2;
+    }
+
+    /**
+     * Sets how many stopped instances are kept for each elastic profile. Surplus instances are terminated as they
+     * are observed.
+     */
+    public void resize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return a future that completes with a pool instance started for the request, or null if the pool of its
+     * elastic profile has none ready
+     */
+    public CompletableFuture<ExampleInstance> claim(CreateAgentRequest request, PluginSettings settings) throws Exception {
+        resize(settings.getWarmPoolSize());
+        if (size <= 0) {
+            return null;
+        }
+
+        Pool pool = pools.computeIfAbsent(poolId(request), Pool::new);
+        pool.profile(request, settings);
+        String instanceId = pool.take();
+        refill(pool);
+        if (instanceId == null) {
+            return null;
+        }
+
+        byte[] userData;
+        try {
+            // the SDK encodes blob attributes itself, so EC2 gets the same text RunInstances would have sent
+            userData = Base64.getDecoder().decode(new ExampleInstance.Builder()
+                    .createAgentRequest(request)
+                    .pluginSettings(settings)
+                    .buildUserData());
+        } catch (Exception e) {
+            pool.putBack(instanceId);
+            throw e;
+        }
+
+        claimed.add(instanceId);
+        LOG.info("Starting warm pool instance " + instanceId + " for " + request.jobIdentifier());
+        Ec2AsyncClient client = ec2.get();
+
+        CompletableFuture<ExampleInstance> started = client.modifyInstanceAttribute(ModifyInstanceAttributeRequest.builder()
+                        .instanceId(instanceId)
+                        .userData(BlobAttributeValue.builder().value(SdkBytes.fromByteArray(userData)).build())
+                        .build())
+                .thenCompose(ignored -> client.createTags(CreateTagsRequest.builder()
+                        .resources(instanceId)
+                        .tags(request.jobIdentifier().getTagsForInstance())
+                        .build()))
+                .thenCompose(ignored -> client.deleteTags(DeleteTagsRequest.builder()
+                        .resources(instanceId)
+                        .tags(Tag.builder().key(WARM_POOL_TAG).build())
+                        .build()))
+                .thenCompose(ignored -> client.startInstances(StartInstancesRequest.builder().instanceIds(instanceId).build()))
+                .thenApply(ignored -> new ExampleInstance(Instance.builder()
+                        .instanceId(instanceId)
+                        // EC2 reports the latest start as the launch time
+                        .launchTime(Instant.ofEpochMilli(clock.now().getMillis()))
+                        .state(InstanceState.builder().name(InstanceStateName.PENDING).build())
+                        .tags(request.getTagsForInstance())
+                        .build()));
+        started.whenComplete((instance, e) -> {
+            if (e != null) {
+                LOG.warn("Could not start warm pool instance " + instanceId + ", terminating it", e);
+                terminate(instanceId);
+            }
+        });
+        return started;
+    }
+
+    /**
+     * Stops running pool instances and makes stopped ones available to {@link #claim}.
+     *
+     * @return true if the instance belongs to a warm pool, and is not an agent
+     */
+    public boolean observe(Instance instance) {
+        String poolId = poolIdOf(instance);
+        if (poolId == null) {
+            return false;
+        }
+        String instanceId = instance.instanceId();
+        if (claimed.contains(instanceId)) {
+            return true;
+        }
+
+        Pool pool = pools.computeIfAbsent(poolId, Pool::new);
+        InstanceStateName state = instance.state() == null ? null : instance.state().name();
+        if (state == InstanceStateName.RUNNING && pool.stopRequested(instanceId)) {
+            stop(pool, instanceId);
+        } else if (state == InstanceStateName.STOPPED && !pool.stopped(instanceId, size)) {
+            LOG.info("Terminating surplus warm pool instance " + instanceId);
+            terminate(instanceId);
+        }
+        // pending and stopping instances are looked at again on the next refresh
+        refill(pool);
+        return true;
+    }
+
+    /**
+     * Called once an instance is gone, a claimed instance can not show up in a listing again.
+     */
+    public void forget(String instanceId) {
+        claimed.remove(instanceId);
+    }
+
+    // package-private for tests
+    int ready(CreateAgentRequest request) {
+        Pool pool = pools.get(poolId(request));
+        return pool == null ? 0 : pool.readyCount();
+    }
+
+    private void refill(Pool pool) {
+        CreateAgentRequest request = pool.request;
+        PluginSettings settings = pool.settings;
+        if (request == null || pool.unsupported) {
+            return;
+        }
+        int missing = pool.reserve(size, clock.now().getMillis());
+        if (missing == 0) {
+            return;
+        }
+
+        RunInstancesRequest runInstancesRequest;
+        try {
+            runInstancesRequest = new ExampleInstance.Builder()
+                    .createAgentRequest(request)
+                    .pluginSettings(settings)
+                    .warmPool(pool.id)
+                    .count(missing)
+                    .buildRunInstancesRequest();
+        } catch (Exception e) {
+            // the pool is keyed by the profile, so the profile will not change for it
+            LOG.warn("Not keeping a warm pool for the elastic profile of " + request.jobIdentifier() + ": " + e.getMessage());
+            pool.unsupported = true;
+            pool.launched(new ArrayList<>(), missing, clock.now().getMillis());
+            return;
+        }
+
+        LOG.info("Launching " + missing + " instances for warm pool " + pool.id);
+        ec2.get().runInstances(runInstancesRequest).whenComplete((response, e) -> {
+            List<String> instanceIds = new ArrayList<>();
+            if (e != null) {
+                LOG.warn("Could not launch instances for warm pool " + pool.id, e);
+            } else {
+                for (Instance instance : response.instances()) {
+                    instanceIds.add(instance.instanceId());
+                }
+            }
+            pool.launched(instanceIds, missing, clock.now().getMillis());
+        });
+    }
+
+    private void stop(Pool pool, String instanceId) {
+        LOG.info("Stopping warm pool instance " + instanceId);
+        ec2.get().stopInstances(StopInstancesRequest.builder().instanceIds(instanceId).build()).whenComplete((response, e) -> {
+            if (e != null) {
+                LOG.warn("Could not stop warm pool instance " + instanceId, e);
+                pool.stopFailed(instanceId);
+            }
+        });
+    }
+
+    private void terminate(String instanceId) {
+        ec2.get().terminateInstances(TerminateInstancesRequest.builder().instanceIds(instanceId).build()).whenComplete((response, e) -> {
+            if (e != null) {
+                LOG.warn("Could not terminate warm pool instance " + instanceId, e);
+            }
+            claimed.remove(instanceId);
+        });
+    }
+
+    static String poolId(CreateAgentRequest request) {
+        return ExampleInstance.profileId(request.properties(), request.environment());
+    }
+
+    private static String poolIdOf(Instance instance) {
+        for (Tag tag : instance.tags()) {
+            if (WARM_POOL_TAG.equals(tag.key())) {
+                return tag.value();
+            }
+        }
+        return null;
+    }
+
+    private static class Pool {
+        private final String id;
+        private volatile CreateAgentRequest request;
+        private volatile PluginSettings settings;
+        private volatile boolean unsupported;
+
+        private final Deque<String> ready = new ArrayDeque<>();
+        // launched but not stopped yet, by launch time
+        private final Map<String, Long> warming = new HashMap<>();
+        private final Set<String> stopping = new HashSet<>();
+        private int launching;
+
+        Pool(String id) {
+            this.id = id;
+        }
+
+        void profile(CreateAgentRequest request, PluginSettings settings) {
+            this.request = request;
+            this.settings = settings;
+        }
+
+        synchronized String take() {
+            return ready.poll();
+        }
+
+        synchronized void putBack(String instanceId) {
+            ready.addFirst(instanceId);
+        }
+
+        synchronized int readyCount() {
+            return ready.size();
+        }
+
+        /**
+         * @return true if a stop should be sent for the instance, false if one has already been sent
+         */
+        synchronized boolean stopRequested(String instanceId) {
+            return stopping.add(instanceId);
+        }
+
+        synchronized void stopFailed(String instanceId) {
+            stopping.remove(instanceId);
+        }
+
+        /**
+         * @return false if the pool is already full and the instance is surplus
+         */
+        synchronized boolean stopped(String instanceId, int size) {
+            warming.remove(instanceId);
+            stopping.remove(instanceId);
+            if (ready.contains(instanceId)) {
+                return true;
+            }
+            if (ready.size() >= size) {
+                return false;
+            }
+            ready.add(instanceId);
+            return true;
+        }
+
+        /**
+         * @return how many instances to launch to fill the pool, these count as launching until {@link #launched}
+         */
+        synchronized int reserve(int size, long nowMillis) {
+            Iterator<Long> launchedAt = warming.values().iterator();
+            while (launchedAt.hasNext()) {
+                if (launchedAt.next() + WARM_UP_TIMEOUT_MILLIS < nowMillis) {
+                    launchedAt.remove();
+                }
+            }
+            int missing = Math.max(0, size - ready.size() - warming.size() - launching);
+            launching += missing;
+            return missing;
+        }
+
+        synchronized void launched(List<String> instanceIds, int requested, long nowMillis) {
+            launching -= requested;
+            for (String instanceId : instanceIds) {
+                warming.put(instanceId, nowMillis);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent.executors;
+
+import com.example.elasticagent.ExampleInstance.CommandDefinition;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.List;
+
+/**
+ * A profile field that only accepts one of a fixed set of values, compared ignoring case.
+ */
+public class AgentProfileChoiceField extends AgentProfileField {
+    private final List<String> choices;
+
+    public AgentProfileChoiceField(String key, boolean required, List<String> choices, CommandDefinition commandDefinition) {
+        super(key, required, false, commandDefinition);
+        this.choices = choices;
+    }
+
+    @Override
+    protected String doValidate(String input) {
+        String error = super.doValidate(input);
+        if (error != null || StringUtils.isBlank(input)) {
+            return error;
+        }
+        for (String choice : choices) {
+            if (choice.equalsIgnoreCase(input.trim())) {
+                return null;
+            }
+        }
+        return getKey() + " must be one of " + String.join(", ", choices) + ".";
+    }
+}
@@ -2,6 +2,7 @@ package com.example.elasticagent.executors;
 
 import com.example.elasticagent.ExampleInstance.Builder;
 
+import org.apache.commons.lang3.StringUtils;
 import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
 
 public class AgentProfileEC2Field extends AgentProfileField {
@@ -16,7 +17,9 @@ public class AgentProfileEC2Field extends AgentProfileField {
 	public AgentProfileEC2Field(String key, boolean required, boolean secure, CommandDefinition commandDefinition) {
 		super(key, required, secure, (Builder instanceBuilder, String value) -> 
 		{
-			commandDefinition.apply(instanceBuilder.getRunInstancesRequestBuilder(), value);
+			// a blank field leaves the value to the launch template
+			if (StringUtils.isNotBlank(value))
+				commandDefinition.apply(instanceBuilder.getRunInstancesRequestBuilder(), value);
 			return instanceBuilder;
 		});
 	}
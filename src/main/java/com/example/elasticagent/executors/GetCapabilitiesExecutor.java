@@ -1,6 +1,8 @@
 package com.example.elasticagent.executors;
 
 import com.example.elasticagent.RequestExecutor;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
@@ -20,9 +22,11 @@ public class GetCapabilitiesExecutor implements RequestExecutor {
         CAPABILITIES_RESPONSE.put("supports_agent_status_report", true);
     }
 
+    private static final Supplier<String> RESPONSE_BODY = Suppliers.memoize(() -> GSON.toJson(CAPABILITIES_RESPONSE));
+
     @Override
     public GoPluginApiResponse execute() {
-        return DefaultGoPluginApiResponse.success(GSON.toJson(CAPABILITIES_RESPONSE));
+        return DefaultGoPluginApiResponse.success(RESPONSE_BODY.get());
     }
 
 }
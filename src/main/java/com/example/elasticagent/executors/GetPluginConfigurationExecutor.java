@@ -17,6 +17,8 @@
 package com.example.elasticagent.executors;
 
 import com.example.elasticagent.RequestExecutor;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
@@ -39,6 +41,23 @@ public class GetPluginConfigurationExecutor implements RequestExecutor {
     public static final Field API_USER = new NonBlankField("api_user", "API User", null, true, false, "3");
     public static final Field API_KEY = new NonBlankField("api_key", "API Key", null, true, false, "4");
 
+    public static final Field INSTANCE_REFRESH_INTERVAL = new PositiveNumberField("instance_refresh_interval", "Instance refresh interval (in seconds)", "60", false, false, "5");
+
+    public static final Field EC2_MAX_CONNECTIONS = new PositiveNumberField("ec2_max_connections", "EC2 connection pool size", "50", false, false, "6");
+    public static final Field EC2_CONNECTION_TIMEOUT = new PositiveNumberField("ec2_connection_timeout", "EC2 connection timeout (in seconds)", "10", false, false, "7");
+    public static final Field EC2_SOCKET_TIMEOUT = new PositiveNumberField("ec2_socket_timeout", "EC2 socket timeout (in seconds)", "30", false, false, "8");
+    public static final Field EC2_CONNECTION_MAX_IDLE_TIME = new PositiveNumberField("ec2_connection_max_idle_time", "EC2 connection max idle time (in seconds)", "60", false, false, "9");
+    public static final Field EC2_TCP_KEEP_ALIVE = new BooleanField("ec2_tcp_keep_alive", "EC2 TCP keep-alive", "true", false, false, "10");
+
+    public static final Field SETTINGS_REFRESH_INTERVAL = new PositiveNumberField("settings_refresh_interval", "Plugin settings refresh interval (in seconds)", "60", false, false, "11");
+
+    public static final Field GO_AGENT_VERSION = new Field("go_agent_version", "GoCD agent version", "18.11.0-8024", false, false, "12");
+
+    public static final Field WARM_POOL_SIZE = new NonNegativeNumberField("warm_pool_size", "Stopped instances kept ready per elastic profile", null, false, false, "13");
+
+    public static final Field MAX_JOBS_PER_INSTANCE = new PositiveNumberField("max_jobs_per_instance", "Maximum jobs per instance", "1", false, false, "14");
+    public static final Field IDLE_AGENT_KEEP_ALIVE = new PositiveNumberField("idle_agent_keep_alive", "Idle agent keep-alive (in seconds)", "300", false, false, "15");
+
     public static final Map<String, Field> FIELDS = new LinkedHashMap<>();
 
     static {
@@ -48,10 +67,30 @@ public class GetPluginConfigurationExecutor implements RequestExecutor {
         FIELDS.put(API_SERVER_URL.key(), API_SERVER_URL);
         FIELDS.put(API_USER.key(), API_USER);
         FIELDS.put(API_KEY.key(), API_KEY);
+
+        FIELDS.put(INSTANCE_REFRESH_INTERVAL.key(), INSTANCE_REFRESH_INTERVAL);
+
+        FIELDS.put(EC2_MAX_CONNECTIONS.key(), EC2_MAX_CONNECTIONS);
+        FIELDS.put(EC2_CONNECTION_TIMEOUT.key(), EC2_CONNECTION_TIMEOUT);
+        FIELDS.put(EC2_SOCKET_TIMEOUT.key(), EC2_SOCKET_TIMEOUT);
+        FIELDS.put(EC2_CONNECTION_MAX_IDLE_TIME.key(), EC2_CONNECTION_MAX_IDLE_TIME);
+        FIELDS.put(EC2_TCP_KEEP_ALIVE.key(), EC2_TCP_KEEP_ALIVE);
+
+        FIELDS.put(SETTINGS_REFRESH_INTERVAL.key(), SETTINGS_REFRESH_INTERVAL);
+
+        FIELDS.put(GO_AGENT_VERSION.key(), GO_AGENT_VERSION);
+
+        FIELDS.put(WARM_POOL_SIZE.key(), WARM_POOL_SIZE);
+
+        FIELDS.put(MAX_JOBS_PER_INSTANCE.key(), MAX_JOBS_PER_INSTANCE);
+        FIELDS.put(IDLE_AGENT_KEEP_ALIVE.key(), IDLE_AGENT_KEEP_ALIVE);
     }
 
+    // the settings form is fixed for the lifetime of the plugin
+    private static final Supplier<String> RESPONSE_BODY = Suppliers.memoize(() -> GSON.toJson(FIELDS));
+
     public GoPluginApiResponse execute() {
-        return new DefaultGoPluginApiResponse(200, GSON.toJson(FIELDS));
+        return new DefaultGoPluginApiResponse(200, RESPONSE_BODY.get());
     }
 
 }
@@ -18,6 +18,8 @@ package com.example.elasticagent.executors;
 
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.utils.Util;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.io.BaseEncoding;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -27,13 +29,16 @@ import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 public class GetPluginSettingsIconExecutor implements RequestExecutor {
     private static final Gson GSON = new Gson();
 
-    @Override
-    public GoPluginApiResponse execute() throws Exception {
+    // the icon never changes while the plugin is loaded, so it is read and encoded only once
+    private static final Supplier<String> RESPONSE_BODY = Suppliers.memoize(() -> {
         JsonObject jsonObject = new JsonObject();
         jsonObject.addProperty("content_type", "image/svg+xml");
         jsonObject.addProperty("data", BaseEncoding.base64().encode(Util.readResourceBytes("/plugin-icon.svg")));
-        DefaultGoPluginApiResponse defaultGoPluginApiResponse = new DefaultGoPluginApiResponse(200, GSON.toJson(jsonObject));
-        return defaultGoPluginApiResponse;
+        return GSON.toJson(jsonObject);
+    });
 
+    @Override
+    public GoPluginApiResponse execute() throws Exception {
+        return new DefaultGoPluginApiResponse(200, RESPONSE_BODY.get());
     }
 }
@@ -16,8 +16,12 @@
 
 package com.example.elasticagent.executors;
 
+import com.example.elasticagent.ExampleInstance;
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.ExampleInstance.Command;
+import com.example.elasticagent.UserDataGenerator;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.logging.Logger;
@@ -25,6 +29,8 @@ import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import software.amazon.awssdk.services.ec2.model.RunInstancesRequest.Builder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -32,6 +38,11 @@ public class GetProfileMetadataExecutor implements RequestExecutor {
     private static final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
     private static final ConcurrentHashMap<String, AgentProfileField> FIELDS = new ConcurrentHashMap<String, AgentProfileField>();
     private static final Logger LOG = Logger.getLoggerFor(GetProfileMetadataExecutor.class);
+
+    public static final String LAUNCH_TEMPLATE_ID = "LaunchTemplateId";
+    public static final String LAUNCH_TEMPLATE_VERSION = "LaunchTemplateVersion";
+    // required unless the profile names a launch template that supplies them
+    public static final List<String> LAUNCH_SPECIFICATION_FIELDS = Collections.unmodifiableList(Arrays.asList("ImageId", "InstanceType", "SecurityGroupId", "KeyName"));
     
     public static List<AgentProfileField> getFields()
     {
@@ -53,14 +64,22 @@ public class GetProfileMetadataExecutor implements RequestExecutor {
     
     static {
         //TODO: how many steps does it take to add a field?  can the number of steps be reduced?
-        addField(new AgentProfileEC2Field("ImageId", true, false, (Builder builder, String value) -> {return builder.imageId(value);}));
-        addField(new AgentProfileEC2Field("InstanceType", true, false, (Builder builder, String value) -> {return builder.instanceType(value);}));
-        addField(new AgentProfileEC2Field("SecurityGroupId", true, false, (Builder builder, String value) -> {return builder.securityGroupIds(value);}));
-        addField(new AgentProfileEC2Field("KeyName", true, false, (Builder builder, String value) -> {return builder.keyName(value);}));
+        addField(new AgentProfileField(LAUNCH_TEMPLATE_ID, false, false, (ExampleInstance.Builder builder, String value) -> {return builder.launchTemplateId(value);}));
+        addField(new AgentProfileField(LAUNCH_TEMPLATE_VERSION, false, false, (ExampleInstance.Builder builder, String value) -> {return builder.launchTemplateVersion(value);}));
+        addField(new AgentProfileEC2Field("ImageId", false, false, (Builder builder, String value) -> {return builder.imageId(value);}));
+        addField(new AgentProfileEC2Field("InstanceType", false, false, (Builder builder, String value) -> {return builder.instanceType(value);}));
+        addField(new AgentProfileEC2Field("SecurityGroupId", false, false, (Builder builder, String value) -> {return builder.securityGroupIds(value);}));
+        addField(new AgentProfileEC2Field("KeyName", false, false, (Builder builder, String value) -> {return builder.keyName(value);}));
+        addField(new AgentProfileChoiceField("Platform", false, UserDataGenerator.Platform.profileValues(), (ExampleInstance.Builder builder, String value) -> {return builder.platform(value);}));
+        addField(new AgentProfileField("AgentDownloadUrl", false, false, (ExampleInstance.Builder builder, String value) -> {return builder.agentDownloadUrl(value);}));
+        addField(new AgentProfileChoiceField("AgentInstallMode", false, UserDataGenerator.InstallMode.profileValues(), (ExampleInstance.Builder builder, String value) -> {return builder.installMode(value);}));
     }
 
+    // GoCD asks for the metadata whenever a profile is validated or edited, the fields never change in between
+    private static final Supplier<String> RESPONSE_BODY = Suppliers.memoize(() -> GSON.toJson(GetProfileMetadataExecutor.getFields()));
+
     @Override
     public GoPluginApiResponse execute() throws Exception {
-        return new DefaultGoPluginApiResponse(200, GSON.toJson(GetProfileMetadataExecutor.getFields()));
+        return new DefaultGoPluginApiResponse(200, RESPONSE_BODY.get());
     }
 }
@@ -16,39 +16,38 @@
 
 package com.example.elasticagent.executors;
 
-import java.io.StringWriter;
 import java.util.List;
 
 import com.example.elasticagent.RequestExecutor;
+import com.example.elasticagent.views.TemplateEngine;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
-import com.github.mustachejava.DefaultMustacheFactory;
-import com.github.mustachejava.Mustache;
-import com.github.mustachejava.MustacheFactory;
 
 public class GetProfileViewExecutor implements RequestExecutor {
     private static final Gson GSON = new Gson();
+
+    // the view only depends on the profile fields, which are all added when GetProfileMetadataExecutor is loaded
+    private static final Supplier<String> RESPONSE_BODY = Suppliers.memoize(GetProfileViewExecutor::render);
     
     @Override
     public GoPluginApiResponse execute() throws Exception {
-    	class Fields
-    	{
-    		public List<AgentProfileField> fields = GetProfileMetadataExecutor.getFields();
-    		public String openCurly = "{";
-    		public String closeCurly = "}";
-    	}
-    	
-    	MustacheFactory mustacheFactory = new DefaultMustacheFactory();
-        Mustache mustache = mustacheFactory.compile("profile.mustache");
-        StringWriter templateWriter = new StringWriter();
-        mustache.execute(templateWriter, new Fields());
+        return new DefaultGoPluginApiResponse(200, RESPONSE_BODY.get());
+    }
 
+    private static String render() {
         JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("template", templateWriter.toString());
-        DefaultGoPluginApiResponse defaultGoPluginApiResponse = new DefaultGoPluginApiResponse(200, GSON.toJson(jsonObject));
-        return defaultGoPluginApiResponse;
+        jsonObject.addProperty("template", TemplateEngine.instance().render("profile.mustache", new Fields()));
+        return GSON.toJson(jsonObject);
     }
 
+    private static class Fields
+    {
+        public List<AgentProfileField> fields = GetProfileMetadataExecutor.getFields();
+        public String openCurly = "{";
+        public String closeCurly = "}";
+    }
 }
@@ -18,6 +18,8 @@ package com.example.elasticagent.executors;
 
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.utils.Util;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
@@ -26,11 +28,14 @@ import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 public class GetViewRequestExecutor implements RequestExecutor {
     private static final Gson GSON = new Gson();
 
-    @Override
-    public GoPluginApiResponse execute() throws Exception {
+    private static final Supplier<String> RESPONSE_BODY = Suppliers.memoize(() -> {
         JsonObject jsonObject = new JsonObject();
         jsonObject.addProperty("template", Util.readResource("/plugin-settings.template.html"));
-        DefaultGoPluginApiResponse defaultGoPluginApiResponse = new DefaultGoPluginApiResponse(200, GSON.toJson(jsonObject));
-        return defaultGoPluginApiResponse;
+        return GSON.toJson(jsonObject);
+    });
+
+    @Override
+    public GoPluginApiResponse execute() throws Exception {
+        return new DefaultGoPluginApiResponse(200, RESPONSE_BODY.get());
     }
 }
@@ -3,6 +3,7 @@ package com.example.elasticagent.executors;
 import com.example.elasticagent.AgentInstances;
 import com.example.elasticagent.ExampleInstance;
 import com.example.elasticagent.PluginRequest;
+import com.example.elasticagent.PluginSettings;
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.requests.JobCompletionRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
@@ -21,7 +22,12 @@ public class JobCompletionRequestExecutor implements RequestExecutor {
 
     @Override
     public GoPluginApiResponse execute() throws Exception {
-        agentInstances.terminate(jobCompletionRequest.getElasticAgentId(), pluginRequest.getPluginSettings());
+        PluginSettings settings = pluginRequest.getPluginSettings();
+        String agentId = jobCompletionRequest.getElasticAgentId();
+        // a reused agent is terminated by the server ping once its keep-alive has passed
+        if (!agentInstances.keepForReuse(agentId, settings)) {
+            agentInstances.terminate(agentId, settings);
+        }
         return new DefaultGoPluginApiResponse(200);
     }
 }
@@ -16,6 +16,8 @@
 
 package com.example.elasticagent.executors;
 
+import org.apache.commons.lang3.StringUtils;
+
 public class PositiveNumberField extends Field {
     public PositiveNumberField(String key, String displayName, String defaultValue, Boolean required, Boolean secure, String displayOrder) {
         super(key, displayName, defaultValue, required, secure, displayOrder);
@@ -23,6 +25,10 @@ public class PositiveNumberField extends Field {
 
     @Override
     public String doValidate(String input) {
+        if (!Boolean.TRUE.equals(required) && StringUtils.isBlank(input)) {
+            return null;
+        }
+
         try {
             if (Integer.parseInt(input) <= 0) {
                 return this.displayName + " must be a positive integer.";
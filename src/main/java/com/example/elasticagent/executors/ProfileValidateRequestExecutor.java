@@ -22,11 +22,15 @@ import com.google.gson.Gson;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
+import org.apache.commons.lang3.StringUtils;
+
 import java.util.*;
+import java.util.regex.Pattern;
 
 public class ProfileValidateRequestExecutor implements RequestExecutor {
     private final ProfileValidateRequest request;
     private static final Gson GSON = new Gson();
+    private static final Pattern LAUNCH_TEMPLATE_VERSION = Pattern.compile("[1-9][0-9]*|\\$Latest|\\$Default");
 
     public ProfileValidateRequestExecutor(ProfileValidateRequest request) {
         this.request = request;
@@ -49,6 +53,8 @@ public class ProfileValidateRequestExecutor implements RequestExecutor {
         }
 
 
+        result.addAll(validateLaunchSpecification(request.getProperties()));
+
         Set<String> set = new HashSet<>(request.getProperties().keySet());
         set.removeAll(knownFields);
 
@@ -63,4 +69,40 @@ public class ProfileValidateRequestExecutor implements RequestExecutor {
 
         return DefaultGoPluginApiResponse.success(GSON.toJson(result));
     }
+
+    /**
+     * A profile either names a launch template, whose fields it may then override, or specifies the instance
+     * completely.
+     */
+    private static List<Map<String, String>> validateLaunchSpecification(Map<String, String> properties) {
+        List<Map<String, String>> result = new ArrayList<>();
+        String launchTemplateId = properties.get(GetProfileMetadataExecutor.LAUNCH_TEMPLATE_ID);
+        String launchTemplateVersion = properties.get(GetProfileMetadataExecutor.LAUNCH_TEMPLATE_VERSION);
+
+        if (StringUtils.isBlank(launchTemplateId)) {
+            if (StringUtils.isNotBlank(launchTemplateVersion)) {
+                result.add(validationError(GetProfileMetadataExecutor.LAUNCH_TEMPLATE_VERSION, "LaunchTemplateVersion requires a LaunchTemplateId."));
+            }
+            for (String key : GetProfileMetadataExecutor.LAUNCH_SPECIFICATION_FIELDS) {
+                if (StringUtils.isBlank(properties.get(key))) {
+                    result.add(validationError(key, key + " must not be blank unless a LaunchTemplateId is given."));
+                }
+            }
+        } else {
+            if (!launchTemplateId.trim().startsWith("lt-")) {
+                result.add(validationError(GetProfileMetadataExecutor.LAUNCH_TEMPLATE_ID, "LaunchTemplateId must be a launch template id such as lt-0abcd1234efgh5678."));
+            }
+            if (StringUtils.isNotBlank(launchTemplateVersion) && !LAUNCH_TEMPLATE_VERSION.matcher(launchTemplateVersion.trim()).matches()) {
+                result.add(validationError(GetProfileMetadataExecutor.LAUNCH_TEMPLATE_VERSION, "LaunchTemplateVersion must be a version number, $Latest or $Default."));
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, String> validationError(String key, String message) {
+        LinkedHashMap<String, String> validationError = new LinkedHashMap<>();
+        validationError.put("key", key);
+        validationError.put("message", message);
+        return validationError;
+    }
 }
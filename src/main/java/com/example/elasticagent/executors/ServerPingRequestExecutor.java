@@ -20,7 +20,10 @@ import com.example.elasticagent.*;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import static com.example.elasticagent.ExamplePlugin.LOG;
 
@@ -51,25 +54,50 @@ public class ServerPingRequestExecutor implements RequestExecutor {
         Agents agentsToDisable = agentInstances.instancesCreatedAfterTimeout(pluginSettings, allAgents);
         agentsToDisable.addAll(missingAgents);
 
-        disableIdleAgents(agentsToDisable);
-
-        allAgents = pluginRequest.listAgents();
+        allAgents = disableIdleAgents(allAgents, agentsToDisable);
         terminateDisabledAgents(allAgents, pluginSettings);
 
         agentInstances.terminateUnregisteredInstances(pluginSettings, allAgents);
 
+        Metrics.instance().log();
         return DefaultGoPluginApiResponse.success("");
     }
 
-    private void disableIdleAgents(Agents agents) throws ServerRequestFailedException {
-        pluginRequest.disableAgents(agents.findInstancesToDisable());
+    /**
+     * @return the snapshot with the disabled agents applied to it, only listed again if the server refused the change
+     */
+    private Agents disableIdleAgents(Agents allAgents, Agents agents) throws ServerRequestFailedException {
+        Collection<Agent> toBeDisabled = new ArrayList<>(agents.findInstancesToDisable());
+        try {
+            pluginRequest.disableAgents(toBeDisabled);
+        } catch (ServerRequestFailedException e) {
+            // some agents changed on the server since the snapshot was taken, reconcile against the server's view
+            LOG.warn("Could not disable " + toBeDisabled.size() + " agents, listing the agents again", e);
+            return pluginRequest.listAgents();
+        }
+
+        allAgents.markDisabled(toBeDisabled);
+        return allAgents;
     }
 
     private void terminateDisabledAgents(Agents agents, PluginSettings pluginSettings) throws Exception {
-        Collection<Agent> toBeDeleted = agents.findInstancesToTerminate();
+        Collection<Agent> toBeTerminated = agents.findInstancesToTerminate();
 
-        for (Agent agent : toBeDeleted) {
-            agentInstances.terminate(agent.elasticAgentId(), pluginSettings);
+        List<String> agentIds = new ArrayList<>();
+        for (Agent agent : toBeTerminated) {
+            agentIds.add(agent.elasticAgentId());
+        }
+        Map<String, Exception> failures = agentInstances.terminate(agentIds, pluginSettings);
+
+        // agents whose instance is still running are kept, the next ping tries again
+        List<Agent> toBeDeleted = new ArrayList<>();
+        for (Agent agent : toBeTerminated) {
+            Exception failure = failures.get(agent.elasticAgentId());
+            if (failure == null) {
+                toBeDeleted.add(agent);
+            } else {
+                LOG.warn("Could not terminate agent " + agent.elasticAgentId() + ", it will not be deleted", failure);
+            }
         }
 
         pluginRequest.deleteAgents(toBeDeleted);
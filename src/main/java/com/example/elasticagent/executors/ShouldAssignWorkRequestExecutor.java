@@ -24,6 +24,8 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
+import java.util.Objects;
+
 public class ShouldAssignWorkRequestExecutor implements RequestExecutor {
     private final AgentInstances<ExampleInstance> agentInstances;
     private final ShouldAssignWorkRequest request;
@@ -47,10 +49,15 @@ public class ShouldAssignWorkRequestExecutor implements RequestExecutor {
         }
         LOG.info("Should assign work - found: " + instance.name());
         LOG.info("Should assign work - FJ Id: " + instance.jobIdentifier());
-        if (instance.jobIdentifier().equals(request.jobIdentifier())) {
+        // instances of a batch have no job until their job tags are applied
+        if (Objects.equals(request.jobIdentifier(), instance.jobIdentifier())) {
         	LOG.info("Should assign work - True");
             return DefaultGoPluginApiResponse.success("true");
         }
+        if (agentInstances.assignIdle(instance.name(), request)) {
+        	LOG.info("Should assign work - True (idle agent reused)");
+            return DefaultGoPluginApiResponse.success("true");
+        }
         LOG.info("Should assign work - false (job id does not match)");
         return DefaultGoPluginApiResponse.success("false");
     }
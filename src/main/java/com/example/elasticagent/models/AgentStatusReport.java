@@ -1,5 +1,6 @@
 package com.example.elasticagent.models;
 
+import java.time.Instant;
 import java.util.Objects;
 
 public class AgentStatusReport {
@@ -7,12 +8,20 @@ public class AgentStatusReport {
     private final JobIdentifier jobIdentifier;
     private final String elasticAgentId;
     private final Long createdAt;
+    private final String state;
+    private final String environment;
     //Add fields as needed
 
     public AgentStatusReport(JobIdentifier jobIdentifier, String elasticAgentId, Long createdAt) {
+        this(jobIdentifier, elasticAgentId, createdAt, null, null);
+    }
+
+    public AgentStatusReport(JobIdentifier jobIdentifier, String elasticAgentId, Long createdAt, String state, String environment) {
         this.jobIdentifier = jobIdentifier;
         this.elasticAgentId = elasticAgentId;
         this.createdAt = createdAt;
+        this.state = state;
+        this.environment = environment;
     }
 
     public JobIdentifier getJobIdentifier() {
@@ -27,6 +36,18 @@ public class AgentStatusReport {
         return createdAt;
     }
 
+    public String getCreatedAtText() {
+        return createdAt != null ? Instant.ofEpochMilli(createdAt).toString() : null;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -34,11 +55,13 @@ public class AgentStatusReport {
         AgentStatusReport that = (AgentStatusReport) o;
         return Objects.equals(jobIdentifier, that.jobIdentifier) &&
                 Objects.equals(elasticAgentId, that.elasticAgentId) &&
-                Objects.equals(createdAt, that.createdAt);
+                Objects.equals(createdAt, that.createdAt) &&
+                Objects.equals(state, that.state) &&
+                Objects.equals(environment, that.environment);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(jobIdentifier, elasticAgentId, createdAt);
+        return Objects.hash(jobIdentifier, elasticAgentId, createdAt, state, environment);
     }
 }
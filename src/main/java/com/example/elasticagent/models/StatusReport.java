@@ -1,15 +1,90 @@
 package com.example.elasticagent.models;
 
+import com.example.elasticagent.Metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 public class StatusReport {
 
     private final String version;
+    private final Collection<AgentStatusReport> agents;
+    private final List<Metrics.Snapshot> metrics;
+    private final String metricsJson;
+    private final List<AmiPreparationScript> amiPreparationScripts;
     //Add fields as needed
 
     public StatusReport(String version) {
+        this(version, Collections.emptyList());
+    }
+
+    /**
+     * @param agents the agents to list, usually a view over the registry so that no copy is made for large fleets
+     */
+    public StatusReport(String version, Collection<AgentStatusReport> agents) {
+        this(version, agents, Collections.emptyList(), null, Collections.emptyList());
+    }
+
+    /**
+     * @param metrics     the latency counters to tabulate
+     * @param metricsJson the same counters as JSON, for copying out of the report
+     */
+    public StatusReport(String version, Collection<AgentStatusReport> agents, List<Metrics.Snapshot> metrics, String metricsJson) {
+        this(version, agents, metrics, metricsJson, Collections.emptyList());
+    }
+
+    /**
+     * @param amiPreparationScripts the scripts that prepare an image for profiles using a pre-installed agent
+     */
+    public StatusReport(String version, Collection<AgentStatusReport> agents, List<Metrics.Snapshot> metrics, String metricsJson,
+                        List<AmiPreparationScript> amiPreparationScripts) {
         this.version = version;
+        this.agents = agents;
+        this.metrics = metrics;
+        this.metricsJson = metricsJson;
+        this.amiPreparationScripts = amiPreparationScripts;
     }
 
     public String getVersion() {
         return version;
     }
+
+    public Collection<AgentStatusReport> getAgents() {
+        return agents;
+    }
+
+    public int getAgentCount() {
+        return agents.size();
+    }
+
+    public List<Metrics.Snapshot> getMetrics() {
+        return metrics;
+    }
+
+    public String getMetricsJson() {
+        return metricsJson;
+    }
+
+    public List<AmiPreparationScript> getAmiPreparationScripts() {
+        return amiPreparationScripts;
+    }
+
+    public static class AmiPreparationScript {
+        private final String operatingSystem;
+        private final String script;
+
+        public AmiPreparationScript(String operatingSystem, String script) {
+            this.operatingSystem = operatingSystem;
+            this.script = script;
+        }
+
+        public String getOperatingSystem() {
+            return operatingSystem;
+        }
+
+        public String getScript() {
+            return script;
+        }
+    }
 }
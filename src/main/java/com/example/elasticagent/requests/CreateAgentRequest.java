@@ -16,17 +16,16 @@
 
 package com.example.elasticagent.requests;
 
+import com.example.elasticagent.ExampleInstance;
 import com.example.elasticagent.ExampleInstance.Command;
 import com.example.elasticagent.AgentInstances;
 import com.example.elasticagent.Constants;
+import com.example.elasticagent.JsonCodecs;
 import com.example.elasticagent.PluginRequest;
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.executors.CreateAgentRequestExecutor;
 import com.example.elasticagent.executors.GetProfileMetadataExecutor;
 import com.example.elasticagent.models.JobIdentifier;
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import org.apache.commons.lang3.StringUtils;
@@ -41,7 +40,6 @@ public class CreateAgentRequest {
 	public static final String AGENT_AUTO_REGISTER_ELASTIC_AGENT_ID = "agent.auto.register.elasticAgent.agentId";
 	public static final String AGENT_AUTO_REGISTER_ELASTIC_AGENT_PLUGIN_ID = "agent.auto.register.elasticAgent.pluginId";
 	public static final String AGENT_AUTO_REGISTER_HOSTNAME = "agent.auto.register.hostname";
-    private static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
     private static final Logger LOG = Logger.getLoggerFor(CreateAgentRequest.class);
     private String autoRegisterKey;
     private Map<String, String> properties;
@@ -85,11 +83,11 @@ public class CreateAgentRequest {
     }
     
     public String toJson() {
-        return GSON.toJson(this);
+        return JsonCodecs.GSON.toJson(this);
     }
 
     public static CreateAgentRequest fromJSON(String json) {
-        return GSON.fromJson(json, CreateAgentRequest.class);
+        return JsonCodecs.GSON.fromJson(json, CreateAgentRequest.class);
     }
 
     public RequestExecutor executor(AgentInstances agentInstances, PluginRequest pluginRequest) {
@@ -113,6 +111,13 @@ public class CreateAgentRequest {
     }
     
     public String autoregisterPropertiesAsString(String elasticAgentId, String elasticAgentHostName) {
+    	return autoregisterPropertiesAsString(elasticAgentId, elasticAgentHostName, "\r\n");
+    }
+    
+    /**
+     * @param lineSeparator ends every property, this lets the properties be embedded in scripts for any platform
+     */
+    public String autoregisterPropertiesAsString(String elasticAgentId, String elasticAgentHostName, String lineSeparator) {
     	Properties properties = autoregisterProperties();
     	
         if (StringUtils.isNotBlank(elasticAgentId)) {
@@ -125,13 +130,22 @@ public class CreateAgentRequest {
     	
     	StringBuilder stringBuilder = new StringBuilder();
     	properties.keySet().forEach(key -> {
-    		//TODO: move this string append to a util function because of its specificity to powershell
-    		stringBuilder.append(key.toString() + "=" + properties.getProperty(key.toString()) + "\r\n");
+    		stringBuilder.append(key).append('=').append(properties.getProperty(key.toString())).append(lineSeparator);
     	});
     	return stringBuilder.toString();
     }
     
     public Collection<Tag> getTagsForInstance()
+    {
+    	Collection<Tag> tags = getProfileTagsForInstance();
+    	tags.addAll(this.jobIdentifier.getTagsForInstance());
+    	return tags;
+    }
+    
+    /**
+     * The tags that do not depend on the job, these are shared by every instance launched in one batch.
+     */
+    public Collection<Tag> getProfileTagsForInstance()
     {
     	ArrayList<Tag> tags = new ArrayList<Tag>();
     	
@@ -139,8 +153,7 @@ public class CreateAgentRequest {
     	properties.keySet().forEach(key -> {
     		tags.add(Tag.builder().key(key.toString()).value(properties.getProperty(key.toString())).build());
     	});
-    	
-    	tags.addAll(this.jobIdentifier.getTagsForInstance());
+    	tags.add(Tag.builder().key(ExampleInstance.PROFILE_ID_TAG).value(ExampleInstance.profileId(this.properties, environment)).build());
     	return tags;
     }
 
@@ -18,22 +18,18 @@ package com.example.elasticagent.requests;
 
 import com.example.elasticagent.AgentInstances;
 import com.example.elasticagent.ExampleInstance;
+import com.example.elasticagent.JsonCodecs;
 import com.example.elasticagent.PluginRequest;
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.executors.JobCompletionRequestExecutor;
 import com.example.elasticagent.executors.ProfileValidateRequestExecutor;
 import com.example.elasticagent.models.JobIdentifier;
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
 import java.util.Map;
 
 public class JobCompletionRequest {
-    public static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
-
     @Expose
     private String elasticAgentId;
     @Expose
@@ -48,7 +44,7 @@ public class JobCompletionRequest {
     }
 
     public static JobCompletionRequest fromJSON(String json) {
-        JobCompletionRequest jobCompletionRequest = GSON.fromJson(json, JobCompletionRequest.class);
+        JobCompletionRequest jobCompletionRequest = JsonCodecs.GSON.fromJson(json, JobCompletionRequest.class);
         return jobCompletionRequest;
     }
 
@@ -19,12 +19,10 @@ package com.example.elasticagent.requests;
 import com.example.elasticagent.Agent;
 import com.example.elasticagent.AgentInstances;
 import com.example.elasticagent.ExampleInstance;
+import com.example.elasticagent.JsonCodecs;
 import com.example.elasticagent.RequestExecutor;
 import com.example.elasticagent.executors.ShouldAssignWorkRequestExecutor;
 import com.example.elasticagent.models.JobIdentifier;
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import java.util.Map;
 
@@ -32,7 +30,6 @@ import java.util.Map;
  * Represents the {@link com.example.elasticagent.Request#REQUEST_SHOULD_ASSIGN_WORK} message.
  */
 public class ShouldAssignWorkRequest {
-    public static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
     private Agent agent;
     private String environment;
     private JobIdentifier jobIdentifier;
@@ -65,7 +62,7 @@ public class ShouldAssignWorkRequest {
     }
 
     public static ShouldAssignWorkRequest fromJSON(String json) {
-        return GSON.fromJson(json, ShouldAssignWorkRequest.class);
+        return JsonCodecs.GSON.fromJson(json, ShouldAssignWorkRequest.class);
     }
 
     public RequestExecutor executor(AgentInstances<ExampleInstance> agentInstances) {
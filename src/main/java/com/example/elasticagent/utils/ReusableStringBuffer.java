@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent.utils;
+
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A {@link StringBuilder} per thread that responses are written into and then copied out of, so that building a
+ * response does not grow a new buffer every time. A buffer that an unusually large response grew beyond
+ * {@link #MAX_RETAINED_SIZE} is dropped rather than kept for the life of the thread.
+ */
+public class ReusableStringBuffer {
+
+    static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+
+    /**
+     * @return everything the content wrote
+     */
+    public String write(Content content) throws IOException {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        try {
+            content.writeTo(CharStreams.asWriter(buffer));
+            return buffer.toString();
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_SIZE) {
+                buffers.remove();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+}
@@ -46,11 +46,19 @@ public class Util {
     }
 
     public static String pluginId() {
+        return pluginProperty("pluginId");
+    }
+
+    public static String pluginVersion() {
+        return pluginProperty("pluginVersion");
+    }
+
+    private static String pluginProperty(String key) {
         String s = readResource("/plugin.properties");
         try {
             Properties properties = new Properties();
             properties.load(new StringReader(s));
-            return (String) properties.get("pluginId");
+            return (String) properties.get(key);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent.views;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheFactory;
+
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles each Mustache template from the classpath once and keeps the compiled template for the lifetime of
+ * the plugin. Compiled templates are thread-safe and can be rendered concurrently.
+ */
+public class TemplateEngine {
+
+    private static final TemplateEngine INSTANCE = new TemplateEngine();
+
+    private final MustacheFactory mustacheFactory = new DefaultMustacheFactory();
+    private final ConcurrentHashMap<String, Mustache> compiled = new ConcurrentHashMap<>();
+
+    public static TemplateEngine instance() {
+        return INSTANCE;
+    }
+
+    public Mustache template(String name) {
+        return compiled.computeIfAbsent(name, mustacheFactory::compile);
+    }
+
+    public String render(String name, Object scope) {
+        StringWriter writer = new StringWriter();
+        template(name).execute(writer, scope);
+        return writer.toString();
+    }
+}
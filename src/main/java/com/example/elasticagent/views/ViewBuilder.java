@@ -1,22 +1,47 @@
 package com.example.elasticagent.views;
 
-//TODO You can modify and use this class to generate views
+import com.example.elasticagent.utils.ReusableStringBuffer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+
+/**
+ * Renders the status report views from the Mustache templates named <code>&lt;template&gt;.mustache</code> on the
+ * classpath. Templates are compiled once by the {@link TemplateEngine}, and rendering writes straight into a
+ * per-thread buffer that is reused from one report to the next.
+ */
 public class ViewBuilder {
 
-    private static ViewBuilder builder;
+    private static final ViewBuilder builder = new ViewBuilder(TemplateEngine.instance());
+
+    private final TemplateEngine templateEngine;
+    private final ReusableStringBuffer buffer = new ReusableStringBuffer();
 
     public static ViewBuilder instance() {
-        if (builder == null) {
-            builder = new ViewBuilder();
-        }
         return builder;
     }
 
+    ViewBuilder(TemplateEngine templateEngine) {
+        this.templateEngine = templateEngine;
+    }
+
     public String build(String template) {
-        return "";
+        return build(template, Collections.emptyMap());
     }
 
     public String build(String template, Object model) {
-        return "";
+        try {
+            return buffer.write(writer -> write(writer, template, model));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not render " + template, e);
+        }
+    }
+
+    /**
+     * Renders the template directly into the given writer.
+     */
+    public void write(Writer writer, String template, Object model) throws IOException {
+        templateEngine.template(template + ".mustache").execute(writer, model).flush();
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+public class AgentsTest {
+
+    private static Agent agent(String id, Agent.AgentState agentState, Agent.ConfigState configState) {
+        return new Agent(id, agentState, Agent.BuildState.Idle, configState);
+    }
+
+    @Test
+    public void shouldOnlyOfferAgentsThatAreNotBuildingAsCandidates() {
+        Agents agents = new Agents(Arrays.asList(
+                agent("idle", Agent.AgentState.Idle, Agent.ConfigState.Enabled),
+                agent("lost", Agent.AgentState.LostContact, Agent.ConfigState.Enabled),
+                agent("building", Agent.AgentState.Building, Agent.ConfigState.Enabled),
+                agent("disabled", Agent.AgentState.Missing, Agent.ConfigState.Disabled),
+                agent("pending", Agent.AgentState.Idle, Agent.ConfigState.Pending),
+                agent("unknown", null, Agent.ConfigState.Enabled)));
+
+        assertThat(agents.findInstancesToDisable(), containsInAnyOrder(
+                agent("idle", Agent.AgentState.Idle, Agent.ConfigState.Enabled),
+                agent("lost", Agent.AgentState.LostContact, Agent.ConfigState.Enabled)));
+        assertThat(agents.findInstancesToTerminate(), contains(agent("disabled", Agent.AgentState.Missing, Agent.ConfigState.Disabled)));
+    }
+
+    @Test
+    public void shouldMoveAgentsBetweenCandidateViewsWhenTheyChange() {
+        Agents agents = new Agents();
+        Collection<Agent> toDisable = agents.findInstancesToDisable();
+        Collection<Agent> toTerminate = agents.findInstancesToTerminate();
+
+        agents.add(agent("a", Agent.AgentState.Building, Agent.ConfigState.Enabled));
+        assertThat(toDisable, empty());
+
+        agents.add(agent("a", Agent.AgentState.Idle, Agent.ConfigState.Enabled));
+        assertThat(toDisable, contains(agent("a", Agent.AgentState.Idle, Agent.ConfigState.Enabled)));
+
+        agents.markDisabled(Collections.singletonList(agent("a", Agent.AgentState.Idle, Agent.ConfigState.Enabled)));
+        assertThat(toDisable, empty());
+        assertThat(toTerminate, contains(agent("a", Agent.AgentState.Idle, Agent.ConfigState.Disabled)));
+        assertThat(agents.agents(), contains(agent("a", Agent.AgentState.Idle, Agent.ConfigState.Disabled)));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Ec2ClientsTest {
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotBuildASyncClientOnceClosed() {
+        Ec2Clients clients = new Ec2Clients();
+        clients.close();
+
+        clients.sync();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotBuildAnAsyncClientOnceClosed() {
+        Ec2Clients clients = new Ec2Clients();
+        clients.close();
+        clients.configure(PluginSettings.fromJSON("{\"ec2_socket_timeout\": \"5\"}"));
+
+        clients.async();
+    }
+
+    @Test
+    public void shouldAllowEveryAttemptAndEveryBackoffWithinACall() {
+        PluginSettings settings = PluginSettings.fromJSON("{\"ec2_connection_timeout\": \"10\", \"ec2_socket_timeout\": \"30\"}");
+
+        assertThat(Ec2Clients.apiCallTimeout(settings), is(Duration.ofSeconds(4 * 40 + 3 * 20)));
+    }
+}
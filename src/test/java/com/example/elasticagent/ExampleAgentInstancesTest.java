@@ -0,0 +1,466 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.models.JobIdentifier;
+import com.example.elasticagent.models.JobIdentifierMother;
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.requests.ShouldAssignWorkRequest;
+import org.joda.time.Period;
+import org.junit.Test;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.InstanceStateChange;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExampleAgentInstancesTest {
+
+    private static ExampleInstance instance(String instanceId, JobIdentifier jobIdentifier) {
+        return new ExampleInstance(ec2Instance(instanceId, jobIdentifier, InstanceStateName.RUNNING));
+    }
+
+    private static Instance ec2Instance(String instanceId, JobIdentifier jobIdentifier, InstanceStateName state) {
+        return Instance.builder()
+                .instanceId(instanceId)
+                .launchTime(Instant.now().minus(1, ChronoUnit.HOURS))
+                .state(InstanceState.builder().name(state).build())
+                .tags(jobIdentifier.getTagsForInstance())
+                .build();
+    }
+
+    private static Ec2Clients clients(Ec2Client ec2) {
+        Ec2Clients clients = mock(Ec2Clients.class);
+        when(clients.sync()).thenReturn(ec2);
+        return clients;
+    }
+
+    private static PluginRequest pluginRequest() throws Exception {
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.getPluginSettings()).thenReturn(new PluginSettings());
+        return pluginRequest;
+    }
+
+    private static DescribeInstancesResponse page(String nextToken, Instance... instances) {
+        return DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder().instances(instances).build())
+                .nextToken(nextToken)
+                .build();
+    }
+
+    @Test
+    public void shouldFindRegisteredInstanceByJobIdentifier() {
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances();
+        ExampleInstance instance = instance("i-1", JobIdentifierMother.get());
+
+        agentInstances.register(instance);
+
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(instance));
+        assertThat(agentInstances.find("i-1"), is(instance));
+    }
+
+    @Test
+    public void shouldMoveJobIndexEntryWhenAnInstanceIsRegisteredAgain() {
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances();
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        agentInstances.register(instance("i-1", JobIdentifierMother.get()));
+
+        ExampleInstance retagged = instance("i-1", otherJob);
+        agentInstances.register(retagged);
+
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(nullValue()));
+        assertThat(agentInstances.find(otherJob), is(retagged));
+    }
+
+    @Test
+    public void shouldRemoveJobIndexEntryWhenAnInstanceIsUnregistered() {
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances();
+        ExampleInstance instance = instance("i-1", JobIdentifierMother.get());
+        agentInstances.register(instance);
+
+        assertThat(agentInstances.unregister("i-1"), is(instance));
+
+        assertFalse(agentInstances.hasInstance("i-1"));
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRegisterInstancesFromEveryPageOfDescribeInstances() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        when(ec2.describeInstances(argThat((DescribeInstancesRequest request) -> request != null && request.nextToken() == null)))
+                .thenReturn(page("page-2", ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.RUNNING)));
+        when(ec2.describeInstances(argThat((DescribeInstancesRequest request) -> request != null && "page-2".equals(request.nextToken()))))
+                .thenReturn(page(null, ec2Instance("i-2", otherJob, InstanceStateName.PENDING)));
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2));
+
+        agentInstances.refreshAll(pluginRequest());
+
+        assertTrue(agentInstances.hasInstance("i-1"));
+        assertTrue(agentInstances.hasInstance("i-2"));
+        assertThat(agentInstances.find(otherJob).name(), is("i-2"));
+    }
+
+    @Test
+    public void shouldApplyStateChangesAndRemovalsFromDescribeInstances() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2));
+        agentInstances.register(new ExampleInstance(ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.PENDING)));
+        agentInstances.register(new ExampleInstance(ec2Instance("i-2", otherJob, InstanceStateName.RUNNING)));
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(page(null, ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.RUNNING)));
+
+        agentInstances.refreshAll(pluginRequest());
+
+        assertThat(agentInstances.find("i-1").state(), is(InstanceStateName.RUNNING));
+        assertFalse(agentInstances.hasInstance("i-2"));
+        assertThat(agentInstances.find(otherJob), is(nullValue()));
+    }
+
+    @Test
+    public void shouldKeepTheJobOfAnInstanceListedBeforeItsJobTagsWereApplied() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2));
+        Instance launched = ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.PENDING);
+        agentInstances.register(new ExampleInstance(launched));
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(page(null, launched.toBuilder().tags(Collections.emptyList()).build()));
+
+        agentInstances.refreshAll(pluginRequest());
+
+        assertThat(agentInstances.find(JobIdentifierMother.get()).name(), is("i-1"));
+    }
+
+    @Test
+    public void shouldKeepRecentlyLaunchedInstancesThatAreNotListedYet() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2));
+        agentInstances.register(new ExampleInstance(ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.PENDING).toBuilder()
+                .launchTime(Instant.now())
+                .build()));
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(page(null));
+
+        agentInstances.refreshAll(pluginRequest());
+
+        assertTrue(agentInstances.hasInstance("i-1"));
+    }
+
+    @Test
+    public void shouldLaunchOnlyOnceForConcurrentCreateRequestsOfTheSameJob() throws Exception {
+        LaunchBatcher launchBatcher = mock(LaunchBatcher.class);
+        CompletableFuture<ExampleInstance> launch = new CompletableFuture<>();
+        when(launchBatcher.submit(any(CreateAgentRequest.class), any(PluginSettings.class))).thenReturn(launch);
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(mock(Ec2Clients.class), launchBatcher);
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.emptyMap(), "prod", JobIdentifierMother.get());
+
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<ExampleInstance>> creates = new ArrayList<>();
+        try {
+            for (int i = 0; i < callers; i++) {
+                creates.add(executor.submit(() -> {
+                    start.await();
+                    return agentInstances.create(request, new PluginSettings());
+                }));
+            }
+            start.countDown();
+
+            ExampleInstance launched = instance("i-1", JobIdentifierMother.get());
+            launch.complete(launched);
+            for (Future<ExampleInstance> create : creates) {
+                assertThat(create.get(5, TimeUnit.SECONDS).launched().get(5, TimeUnit.SECONDS), is(launched));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(launchBatcher, times(1)).submit(any(CreateAgentRequest.class), any(PluginSettings.class));
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(agentInstances.find("i-1")));
+    }
+
+    @Test
+    public void shouldStartAWarmPoolInstanceInsteadOfLaunchingOne() throws Exception {
+        LaunchBatcher launchBatcher = mock(LaunchBatcher.class);
+        WarmPool warmPool = mock(WarmPool.class);
+        ExampleInstance started = instance("i-1", JobIdentifierMother.get());
+        when(warmPool.claim(any(CreateAgentRequest.class), any(PluginSettings.class))).thenReturn(CompletableFuture.completedFuture(started));
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(mock(Ec2Clients.class), launchBatcher, warmPool);
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.emptyMap(), "prod", JobIdentifierMother.get());
+
+        ExampleInstance created = agentInstances.create(request, new PluginSettings());
+
+        assertThat(created.launched().get(5, TimeUnit.SECONDS), is(started));
+        verify(launchBatcher, never()).submit(any(CreateAgentRequest.class), any(PluginSettings.class));
+        assertTrue(agentInstances.hasInstance("i-1"));
+    }
+
+    @Test
+    public void shouldLaunchANewInstanceWhenTheWarmPoolInstanceDoesNotStart() throws Exception {
+        LaunchBatcher launchBatcher = mock(LaunchBatcher.class);
+        WarmPool warmPool = mock(WarmPool.class);
+        CompletableFuture<ExampleInstance> failedStart = new CompletableFuture<>();
+        failedStart.completeExceptionally(new RuntimeException("IncorrectInstanceState"));
+        when(warmPool.claim(any(CreateAgentRequest.class), any(PluginSettings.class))).thenReturn(failedStart);
+        ExampleInstance launched = instance("i-2", JobIdentifierMother.get());
+        when(launchBatcher.submit(any(CreateAgentRequest.class), any(PluginSettings.class))).thenReturn(CompletableFuture.completedFuture(launched));
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(mock(Ec2Clients.class), launchBatcher, warmPool);
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.emptyMap(), "prod", JobIdentifierMother.get());
+
+        ExampleInstance created = agentInstances.create(request, new PluginSettings());
+
+        assertThat(created.launched().get(5, TimeUnit.SECONDS), is(launched));
+    }
+
+    private static Ec2Clients clients(Ec2Client ec2, Ec2AsyncClient asyncEc2) {
+        Ec2Clients clients = clients(ec2);
+        when(clients.async()).thenReturn(asyncEc2);
+        return clients;
+    }
+
+    private static Instance idleAgent(CreateAgentRequest request) {
+        return ec2Instance("i-1", request.jobIdentifier(), InstanceStateName.RUNNING).toBuilder()
+                .tags(request.getTagsForInstance())
+                .build();
+    }
+
+    @Test
+    public void shouldReuseAnIdleAgentForAnotherJobOfTheSameProfile() throws Exception {
+        Ec2AsyncClient ec2 = mock(Ec2AsyncClient.class);
+        when(ec2.createTags(any(CreateTagsRequest.class))).thenReturn(CompletableFuture.completedFuture(CreateTagsResponse.builder().build()));
+        LaunchBatcher launchBatcher = mock(LaunchBatcher.class);
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(mock(Ec2Client.class), ec2), launchBatcher, mock(WarmPool.class));
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.singletonMap("ImageId", "ami-1"), "prod", JobIdentifierMother.get());
+        agentInstances.register(new ExampleInstance(idleAgent(request)));
+        PluginSettings settings = PluginSettings.fromJSON("{\"max_jobs_per_instance\": \"2\"}");
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        JobIdentifier thirdJob = new JobIdentifier("up42", 3L, "label", "stage", "1", "job1", 3L);
+
+        assertTrue(agentInstances.keepForReuse("i-1", settings));
+        ExampleInstance created = agentInstances.create(new CreateAgentRequest("key", request.properties(), "prod", otherJob), settings);
+
+        assertThat(created.launched().get(5, TimeUnit.SECONDS).name(), is("i-1"));
+        assertThat(agentInstances.find(otherJob).name(), is("i-1"));
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(nullValue()));
+        assertTrue(agentInstances.assignIdle("i-1", new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), "prod", otherJob, request.properties())));
+        assertFalse(agentInstances.assignIdle("i-1", new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), "prod", thirdJob, request.properties())));
+        verify(launchBatcher, never()).submit(any(CreateAgentRequest.class), any(PluginSettings.class));
+        verify(ec2).createTags(any(CreateTagsRequest.class));
+        // the second job is the last one this instance runs
+        assertFalse(agentInstances.keepForReuse("i-1", settings));
+    }
+
+    @Test
+    public void shouldLaunchANewInstanceWhenNoIdleAgentHasTheSameProfile() throws Exception {
+        LaunchBatcher launchBatcher = mock(LaunchBatcher.class);
+        when(launchBatcher.submit(any(CreateAgentRequest.class), any(PluginSettings.class))).thenReturn(new CompletableFuture<>());
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(mock(Ec2Clients.class), launchBatcher, mock(WarmPool.class));
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.singletonMap("ImageId", "ami-1"), "prod", JobIdentifierMother.get());
+        agentInstances.register(new ExampleInstance(idleAgent(request)));
+        PluginSettings settings = PluginSettings.fromJSON("{\"max_jobs_per_instance\": \"2\"}");
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        assertTrue(agentInstances.keepForReuse("i-1", settings));
+
+        agentInstances.create(new CreateAgentRequest("key", request.properties(), "test", otherJob), settings);
+
+        verify(launchBatcher).submit(any(CreateAgentRequest.class), any(PluginSettings.class));
+        assertThat(agentInstances.find(JobIdentifierMother.get()).name(), is("i-1"));
+        assertFalse(agentInstances.assignIdle("i-1", new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), "test", otherJob, request.properties())));
+    }
+
+    @Test
+    public void shouldKeepTheNewJobOfAReusedAgentUntilItIsRetagged() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        Ec2AsyncClient asyncEc2 = mock(Ec2AsyncClient.class);
+        when(asyncEc2.createTags(any(CreateTagsRequest.class))).thenReturn(new CompletableFuture<>());
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2, asyncEc2), mock(LaunchBatcher.class), mock(WarmPool.class));
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.singletonMap("ImageId", "ami-1"), "prod", JobIdentifierMother.get());
+        Instance idleAgent = idleAgent(request);
+        agentInstances.register(new ExampleInstance(idleAgent));
+        PluginSettings settings = PluginSettings.fromJSON("{\"max_jobs_per_instance\": \"2\"}");
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        assertTrue(agentInstances.keepForReuse("i-1", settings));
+        agentInstances.create(new CreateAgentRequest("key", request.properties(), "prod", otherJob), settings);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(page(null, idleAgent));
+
+        agentInstances.refreshAll(pluginRequest());
+
+        assertThat(agentInstances.find(otherJob).name(), is("i-1"));
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotReportAnAgentClaimedForAJobAsOldBeforeTheServerAssignsTheJob() throws Exception {
+        Ec2AsyncClient ec2 = mock(Ec2AsyncClient.class);
+        when(ec2.createTags(any(CreateTagsRequest.class))).thenReturn(CompletableFuture.completedFuture(CreateTagsResponse.builder().build()));
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(mock(Ec2Client.class), ec2), mock(LaunchBatcher.class), mock(WarmPool.class));
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.singletonMap("ImageId", "ami-1"), "prod", JobIdentifierMother.get());
+        agentInstances.register(new ExampleInstance(idleAgent(request)));
+        PluginSettings settings = PluginSettings.fromJSON("{\"max_jobs_per_instance\": \"2\"}");
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        Agents agents = new Agents(Collections.singletonList(
+                new Agent("i-1", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled)));
+        assertTrue(agentInstances.keepForReuse("i-1", settings));
+        agentInstances.create(new CreateAgentRequest("key", request.properties(), "prod", otherJob), settings);
+
+        // a server ping between create-agent and should-assign-work
+        assertTrue(agentInstances.instancesCreatedAfterTimeout(settings, agents).agentIds().isEmpty());
+
+        assertTrue(agentInstances.assignIdle("i-1", new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), "prod", otherJob, request.properties())));
+    }
+
+    @Test
+    public void shouldRetryAFailedRetagOnTheNextRefresh() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        Ec2AsyncClient asyncEc2 = mock(Ec2AsyncClient.class);
+        CompletableFuture<CreateTagsResponse> throttled = new CompletableFuture<>();
+        throttled.completeExceptionally(new RuntimeException("RequestLimitExceeded"));
+        when(asyncEc2.createTags(any(CreateTagsRequest.class)))
+                .thenReturn(throttled)
+                .thenReturn(CompletableFuture.completedFuture(CreateTagsResponse.builder().build()));
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2, asyncEc2), mock(LaunchBatcher.class), mock(WarmPool.class));
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.singletonMap("ImageId", "ami-1"), "prod", JobIdentifierMother.get());
+        Instance idleAgent = idleAgent(request);
+        agentInstances.register(new ExampleInstance(idleAgent));
+        PluginSettings settings = PluginSettings.fromJSON("{\"max_jobs_per_instance\": \"2\"}");
+        JobIdentifier otherJob = new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L);
+        assertTrue(agentInstances.keepForReuse("i-1", settings));
+        agentInstances.create(new CreateAgentRequest("key", request.properties(), "prod", otherJob), settings);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(page(null, idleAgent.toBuilder()
+                .tags(otherJob.getTagsForInstance())
+                .build()));
+
+        agentInstances.refreshAll(pluginRequest());
+
+        verify(asyncEc2, times(2)).createTags(any(CreateTagsRequest.class));
+        assertThat(agentInstances.find(otherJob).name(), is("i-1"));
+    }
+
+    @Test
+    public void shouldNotKeepAgentsWhenReuseIsNotEnabled() {
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(mock(Ec2Clients.class));
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.emptyMap(), "prod", JobIdentifierMother.get());
+        agentInstances.register(new ExampleInstance(ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.RUNNING).toBuilder()
+                .tags(request.getTagsForInstance())
+                .build()));
+
+        assertFalse(agentInstances.keepForReuse("i-1", new PluginSettings()));
+    }
+
+    @Test
+    public void shouldReleaseTheJobReservationWhenTheLaunchFails() throws Exception {
+        LaunchBatcher launchBatcher = mock(LaunchBatcher.class);
+        CompletableFuture<ExampleInstance> failedLaunch = new CompletableFuture<>();
+        failedLaunch.completeExceptionally(new RuntimeException("InsufficientInstanceCapacity"));
+        when(launchBatcher.submit(any(CreateAgentRequest.class), any(PluginSettings.class))).thenReturn(failedLaunch);
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(mock(Ec2Clients.class), launchBatcher);
+        CreateAgentRequest request = new CreateAgentRequest("key", Collections.emptyMap(), "prod", JobIdentifierMother.get());
+
+        agentInstances.create(request, new PluginSettings());
+
+        assertThat(agentInstances.find(JobIdentifierMother.get()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldUnregisterTerminatedInstancesAndIgnoreUnknownAgents() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.terminateInstances(any(TerminateInstancesRequest.class))).thenReturn(TerminateInstancesResponse.builder()
+                .terminatingInstances(InstanceStateChange.builder().instanceId("i-1").build())
+                .build());
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances(clients(ec2));
+        agentInstances.register(instance("i-1", JobIdentifierMother.get()));
+
+        Map<String, Exception> failures = agentInstances.terminate(Arrays.asList("i-1", "i-unknown"), new PluginSettings());
+
+        assertTrue(failures.isEmpty());
+        assertFalse(agentInstances.hasInstance("i-1"));
+        verify(ec2, times(1)).terminateInstances(argThat((TerminateInstancesRequest request) ->
+                request != null && request.instanceIds().equals(Collections.singletonList("i-1"))));
+    }
+
+    @Test
+    public void shouldReturnOnlyAgentsWhoseInstanceOutlivedTheAutoRegisterTimeout() throws Exception {
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances();
+        Clock.TestClock clock = new Clock.TestClock();
+        agentInstances.clock = clock;
+        agentInstances.register(instance("i-old", JobIdentifierMother.get()));
+        agentInstances.register(new ExampleInstance(ec2Instance("i-new", new JobIdentifier("up42", 2L, "label", "stage", "1", "job1", 2L), InstanceStateName.RUNNING).toBuilder()
+                .launchTime(Instant.ofEpochMilli(clock.now().getMillis()))
+                .build()));
+        Agents agents = new Agents(Arrays.asList(
+                new Agent("i-old", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled),
+                new Agent("i-new", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled)));
+
+        assertThat(agentInstances.instancesCreatedAfterTimeout(new PluginSettings(), agents).agentIds(), contains("i-old"));
+
+        clock.forward(Period.minutes(11));
+        // i-old was seen registered on the first ping and is not looked at again
+        assertThat(agentInstances.instancesCreatedAfterTimeout(new PluginSettings(), agents).agentIds(), contains("i-new"));
+    }
+
+    @Test
+    public void shouldRestartTheAutoRegisterDeadlineWhenAnInstanceIsLaunchedAgain() {
+        ExampleAgentInstances agentInstances = new ExampleAgentInstances();
+        Clock.TestClock clock = new Clock.TestClock();
+        agentInstances.clock = clock;
+        agentInstances.register(instance("i-1", JobIdentifierMother.get()));
+        agentInstances.register(new ExampleInstance(ec2Instance("i-1", JobIdentifierMother.get(), InstanceStateName.RUNNING).toBuilder()
+                .launchTime(Instant.ofEpochMilli(clock.now().getMillis()))
+                .build()));
+        Agents agents = new Agents(Collections.singletonList(
+                new Agent("i-1", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled)));
+
+        assertTrue(agentInstances.instancesCreatedAfterTimeout(new PluginSettings(), agents).agentIds().isEmpty());
+    }
+}
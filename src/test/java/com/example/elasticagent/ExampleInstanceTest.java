@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.models.JobIdentifierMother;
+import com.example.elasticagent.requests.CreateAgentRequest;
+import org.junit.Test;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ExampleInstanceTest {
+
+    private static Instance.Builder ec2Instance() {
+        List<Tag> tags = new ArrayList<>(JobIdentifierMother.get().getTagsForInstance());
+        // a fresh String, so that the key is not the interned constant
+        tags.add(Tag.builder().key(new String(CreateAgentRequest.AGENT_AUTO_REGISTER_ENVIRONMENTS)).value("prod").build());
+        return Instance.builder()
+                .instanceId("i-1")
+                .launchTime(Instant.ofEpochMilli(1500000000123L))
+                .state(InstanceState.builder().name(InstanceStateName.RUNNING).build())
+                .tags(tags);
+    }
+
+    @Test
+    public void shouldCopyWhatThePluginNeedsOutOfTheInstance() {
+        ExampleInstance instance = new ExampleInstance(ec2Instance().build());
+
+        assertThat(instance.name(), is("i-1"));
+        assertThat(instance.launchedAtMillis(), is(1500000000123L));
+        assertThat(instance.state(), is(InstanceStateName.RUNNING));
+        assertThat(instance.environment(), is("prod"));
+        assertThat(instance.jobIdentifier(), is(JobIdentifierMother.get()));
+    }
+
+    @Test
+    public void shouldNotHaveAJobIdentifierWhenTheInstanceIsNotTaggedWithAJob() {
+        ExampleInstance instance = new ExampleInstance(ec2Instance().tags(new ArrayList<>()).build());
+
+        assertThat(instance.jobIdentifier(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldOnlySendOverridesAndTagsWhenLaunchingFromALaunchTemplate() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("LaunchTemplateId", "lt-0abcd1234efgh5678");
+        properties.put("LaunchTemplateVersion", "4");
+        properties.put("InstanceType", "c5.large");
+        properties.put("ImageId", "");
+        CreateAgentRequest request = new CreateAgentRequest("secret", properties, "prod", JobIdentifierMother.get());
+
+        RunInstancesRequest runInstancesRequest = new ExampleInstance.Builder()
+                .createAgentRequest(request)
+                .pluginSettings(PluginSettings.fromJSON("{\"go_server_url\": \"https://ci.example.com/go\"}"))
+                .buildRunInstancesRequest();
+
+        assertThat(runInstancesRequest.launchTemplate().launchTemplateId(), is("lt-0abcd1234efgh5678"));
+        assertThat(runInstancesRequest.launchTemplate().version(), is("4"));
+        assertThat(runInstancesRequest.instanceTypeAsString(), is("c5.large"));
+        assertThat(runInstancesRequest.imageId(), is(nullValue()));
+        assertThat(runInstancesRequest.monitoring(), is(nullValue()));
+        assertThat(runInstancesRequest.userData(), is(notNullValue()));
+        assertThat(runInstancesRequest.tagSpecifications().get(0).tags(), is(request.getTagsForInstance()));
+    }
+
+    @Test
+    public void shouldLaunchFromTheLaunchTemplateWhateverTheOrderOfTheProfileProperties() throws Exception {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("InstanceType", "c5.large");
+        properties.put("ImageId", "");
+        properties.put("LaunchTemplateVersion", "$Latest");
+        properties.put("LaunchTemplateId", "lt-0abcd1234efgh5678");
+        CreateAgentRequest request = new CreateAgentRequest("secret", properties, "prod", JobIdentifierMother.get());
+
+        RunInstancesRequest runInstancesRequest = new ExampleInstance.Builder()
+                .createAgentRequest(request)
+                .pluginSettings(PluginSettings.fromJSON("{\"go_server_url\": \"https://ci.example.com/go\"}"))
+                .buildRunInstancesRequest();
+
+        assertThat(runInstancesRequest.launchTemplate().launchTemplateId(), is("lt-0abcd1234efgh5678"));
+        assertThat(runInstancesRequest.launchTemplate().version(), is("$Latest"));
+        assertThat(runInstancesRequest.instanceTypeAsString(), is("c5.large"));
+        assertThat(runInstancesRequest.monitoring(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldLaunchWarmPoolInstancesFromTheLaunchTemplateOfTheProfile() throws Exception {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("LaunchTemplateId", "lt-0abcd1234efgh5678");
+        properties.put("AgentInstallMode", "preinstalled");
+        CreateAgentRequest request = new CreateAgentRequest("secret", properties, "prod", JobIdentifierMother.get());
+
+        RunInstancesRequest runInstancesRequest = new ExampleInstance.Builder()
+                .createAgentRequest(request)
+                .pluginSettings(PluginSettings.fromJSON("{\"go_server_url\": \"https://ci.example.com/go\"}"))
+                .warmPool("pool-1")
+                .count(2)
+                .buildRunInstancesRequest();
+
+        assertThat(runInstancesRequest.launchTemplate().launchTemplateId(), is("lt-0abcd1234efgh5678"));
+        assertThat(runInstancesRequest.launchTemplate().version(), is(nullValue()));
+        assertThat(runInstancesRequest.userData(), is(nullValue()));
+        assertThat(runInstancesRequest.maxCount(), is(2));
+        assertTrue(runInstancesRequest.tagSpecifications().get(0).tags()
+                .contains(Tag.builder().key(WarmPool.WARM_POOL_TAG).value("pool-1").build()));
+    }
+
+    @Test
+    public void shouldOnlyConsiderAnInstanceChangedWhenSomethingThePluginTracksChanged() {
+        ExampleInstance instance = new ExampleInstance(ec2Instance().build());
+
+        assertTrue(instance.isSameAs(new ExampleInstance(ec2Instance().privateIpAddress("10.0.0.1").build())));
+        assertFalse(instance.isSameAs(new ExampleInstance(ec2Instance()
+                .state(InstanceState.builder().name(InstanceStateName.STOPPING).build())
+                .build())));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.InstanceStateChange;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class InstanceTerminatorTest {
+
+    private Ec2Client ec2;
+    private InstanceTerminator terminator;
+
+    @Before
+    public void setUp() {
+        ec2 = mock(Ec2Client.class);
+        terminator = new InstanceTerminator(() -> ec2);
+        when(ec2.terminateInstances(any(TerminateInstancesRequest.class))).thenAnswer(invocation -> {
+            TerminateInstancesRequest request = invocation.getArgument(0);
+            if (request.instanceIds().contains("i-bad")) {
+                throw error(400, "InvalidInstanceID.Malformed");
+            }
+            if (request.instanceIds().contains("i-gone")) {
+                throw error(400, "InvalidInstanceID.NotFound");
+            }
+            List<InstanceStateChange> changes = new ArrayList<>();
+            for (String id : request.instanceIds()) {
+                changes.add(InstanceStateChange.builder().instanceId(id).build());
+            }
+            return TerminateInstancesResponse.builder().terminatingInstances(changes).build();
+        });
+    }
+
+    private static Ec2Exception error(int statusCode, String errorCode) {
+        return (Ec2Exception) Ec2Exception.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("i-" + i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void shouldTerminateInChunksOfTheMaximumCallSize() {
+        Map<String, Exception> failures = terminator.terminate(ids(InstanceTerminator.MAX_INSTANCES_PER_CALL + 500));
+
+        assertThat(failures.isEmpty(), is(true));
+        verify(ec2, times(2)).terminateInstances(any(TerminateInstancesRequest.class));
+    }
+
+    @Test
+    public void shouldIsolateTheIdsThatEC2Rejected() {
+        List<String> ids = ids(7);
+        ids.add("i-bad");
+
+        Map<String, Exception> failures = terminator.terminate(ids);
+
+        assertThat(failures.keySet(), contains("i-bad"));
+    }
+
+    @Test
+    public void shouldConsiderInstancesThatDoNotExistAsTerminated() {
+        Map<String, Exception> failures = terminator.terminate(Arrays.asList("i-1", "i-gone"));
+
+        assertThat(failures.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldFailTheWholeChunkWithoutSplittingWhenEC2IsUnavailable() {
+        reset(ec2);
+        when(ec2.terminateInstances(any(TerminateInstancesRequest.class))).thenThrow(error(503, "RequestLimitExceeded"));
+
+        Map<String, Exception> failures = terminator.terminate(ids(4));
+
+        assertThat(failures.keySet(), hasSize(4));
+        verify(ec2, times(1)).terminateInstances(any(TerminateInstancesRequest.class));
+    }
+}
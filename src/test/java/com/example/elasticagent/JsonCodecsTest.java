@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.requests.JobCompletionRequest;
+import com.example.elasticagent.requests.ShouldAssignWorkRequest;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JsonCodecsTest {
+
+    // how the request bodies were decoded before the streaming codecs
+    private static final Gson REFLECTIVE = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+
+    static final String JOB_IDENTIFIER = "{\"pipeline_name\":\"up42\",\"pipeline_counter\":98,\"pipeline_label\":\"label-98\"," +
+            "\"stage_name\":\"build\",\"stage_counter\":\"2\",\"job_name\":\"test\",\"job_id\":20}";
+    static final String AGENT = "{\"agent_id\":\"i-0abc\",\"agent_state\":\"Idle\",\"build_state\":\"Idle\",\"config_state\":\"Enabled\"}";
+
+    static final String SHOULD_ASSIGN_WORK = "{\"environment\":\"prod\",\"agent\":" + AGENT + ",\"job_identifier\":" + JOB_IDENTIFIER +
+            ",\"properties\":{\"ImageId\":\"ami-1\",\"InstanceType\":\"t2.micro\"}}";
+    static final String CREATE_AGENT = "{\"auto_register_key\":\"secret\",\"environment\":\"prod\",\"job_identifier\":" + JOB_IDENTIFIER +
+            ",\"properties\":{\"ImageId\":\"ami-1\",\"InstanceType\":\"t2.micro\"}}";
+    static final String JOB_COMPLETION = "{\"elastic_agent_id\":\"i-0abc\",\"job_identifier\":" + JOB_IDENTIFIER + "}";
+    static final String AGENTS = "[" + AGENT + ",{\"agent_id\":\"i-0def\",\"agent_state\":\"Building\",\"build_state\":\"Building\",\"config_state\":\"Disabled\"}]";
+
+    @Test
+    public void shouldDecodeShouldAssignWorkLikeTheReflectivePath() {
+        ShouldAssignWorkRequest streamed = ShouldAssignWorkRequest.fromJSON(SHOULD_ASSIGN_WORK);
+        ShouldAssignWorkRequest reflected = REFLECTIVE.fromJson(SHOULD_ASSIGN_WORK, ShouldAssignWorkRequest.class);
+
+        assertThat(streamed.agent(), is(reflected.agent()));
+        assertThat(streamed.environment(), is(reflected.environment()));
+        assertThat(streamed.jobIdentifier(), is(reflected.jobIdentifier()));
+        assertThat(streamed.properties(), is(reflected.properties()));
+    }
+
+    @Test
+    public void shouldDecodeCreateAgentLikeTheReflectivePath() {
+        CreateAgentRequest streamed = CreateAgentRequest.fromJSON(CREATE_AGENT);
+        CreateAgentRequest reflected = REFLECTIVE.fromJson(CREATE_AGENT, CreateAgentRequest.class);
+
+        assertThat(streamed.autoRegisterKey(), is(reflected.autoRegisterKey()));
+        assertThat(streamed.environment(), is(reflected.environment()));
+        assertThat(streamed.jobIdentifier(), is(reflected.jobIdentifier()));
+        assertThat(streamed.properties(), is(reflected.properties()));
+    }
+
+    @Test
+    public void shouldDecodeJobCompletionLikeTheReflectivePath() {
+        JobCompletionRequest streamed = JobCompletionRequest.fromJSON(JOB_COMPLETION);
+        JobCompletionRequest reflected = REFLECTIVE.fromJson(JOB_COMPLETION, JobCompletionRequest.class);
+
+        assertThat(streamed.getElasticAgentId(), is(reflected.getElasticAgentId()));
+        assertThat(streamed.jobIdentifier(), is(reflected.jobIdentifier()));
+    }
+
+    @Test
+    public void shouldDecodeAgentListsLikeTheReflectivePath() {
+        List<Agent> reflected = REFLECTIVE.fromJson(AGENTS, Agent.AGENT_METADATA_LIST_TYPE);
+
+        assertThat(Agent.fromJSONArray(AGENTS), is(reflected));
+    }
+
+    @Test
+    public void shouldSkipUnknownFieldsAndReadUnknownConstantsAsNull() {
+        String json = "{\"elastic_agent_id\":\"i-0abc\",\"added_later\":{\"nested\":[1,2,{\"deep\":true}]}," +
+                "\"job_identifier\":{\"job_id\":\"20\",\"job_name\":\"test\",\"extra\":null}}";
+
+        JobCompletionRequest request = JobCompletionRequest.fromJSON(json);
+        List<Agent> agents = Agent.fromJSONArray("[{\"agent_id\":\"i-0abc\",\"agent_state\":\"Hibernating\"}]");
+
+        assertThat(request.getElasticAgentId(), is("i-0abc"));
+        assertThat(request.jobIdentifier().getJobId(), is(20L));
+        assertThat(agents.get(0).agentState(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldEncodeAgentListsLikeTheReflectivePath() {
+        List<Agent> agents = Arrays.asList(
+                new Agent("i-0abc", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled),
+                new Agent("<i-0def & \"quoted\">", null, Agent.BuildState.Building, Agent.ConfigState.Disabled));
+
+        assertThat(JsonCodecs.toJSONArray(agents), is(REFLECTIVE.toJson(agents)));
+    }
+
+    @Test
+    public void shouldNotLeakTheReusedBufferBetweenCalls() {
+        List<Agent> agents = Agent.fromJSONArray(AGENTS);
+
+        String first = JsonCodecs.toJSONArray(agents);
+        String empty = JsonCodecs.toJSONArray(Collections.emptyList());
+        String again = JsonCodecs.toJSONArray(agents);
+
+        assertThat(empty, is("[]"));
+        assertThat(again, is(first));
+    }
+
+    @Test
+    public void shouldRoundTripCreateAgentRequests() {
+        CreateAgentRequest request = CreateAgentRequest.fromJSON(CREATE_AGENT);
+
+        CreateAgentRequest copy = CreateAgentRequest.fromJSON(request.toJson());
+
+        assertThat(copy.jobIdentifier(), is(request.jobIdentifier()));
+        assertThat(copy.properties(), is(request.properties()));
+    }
+}
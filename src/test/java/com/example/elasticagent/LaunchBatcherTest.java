@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.models.JobIdentifier;
+import com.example.elasticagent.requests.CreateAgentRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class LaunchBatcherTest {
+
+    private Ec2AsyncClient ec2;
+    private LaunchBatcher launchBatcher;
+    private PluginSettings settings;
+
+    @Before
+    public void setUp() {
+        ec2 = mock(Ec2AsyncClient.class);
+        launchBatcher = new LaunchBatcher(() -> ec2, 100);
+        settings = PluginSettings.fromJSON("{\"go_server_url\": \"https://ci.example.com/go\"}");
+        when(ec2.createTags(any(CreateTagsRequest.class))).thenReturn(CompletableFuture.completedFuture(CreateTagsResponse.builder().build()));
+    }
+
+    @After
+    public void tearDown() {
+        launchBatcher.shutdown();
+    }
+
+    private static CreateAgentRequest request(String imageId, long jobId) {
+        JobIdentifier jobIdentifier = new JobIdentifier("up42", 1L, "label", "stage", "1", "job" + jobId, jobId);
+        return new CreateAgentRequest("key", Collections.singletonMap("ImageId", imageId), "prod", jobIdentifier);
+    }
+
+    private static Instance instance(String instanceId) {
+        return Instance.builder().instanceId(instanceId).launchTime(Instant.now()).build();
+    }
+
+    @Test
+    public void shouldLaunchRequestsForTheSameProfileInOneRunInstancesCall() throws Exception {
+        when(ec2.runInstances(any(RunInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                RunInstancesResponse.builder().instances(instance("i-1"), instance("i-2")).build()));
+        CreateAgentRequest first = request("ami-1", 1L);
+        CreateAgentRequest second = request("ami-1", 2L);
+
+        CompletableFuture<ExampleInstance> firstLaunch = launchBatcher.submit(first, settings);
+        CompletableFuture<ExampleInstance> secondLaunch = launchBatcher.submit(second, settings);
+
+        assertThat(firstLaunch.get(5, TimeUnit.SECONDS).jobIdentifier(), is(first.jobIdentifier()));
+        assertThat(secondLaunch.get(5, TimeUnit.SECONDS).jobIdentifier(), is(second.jobIdentifier()));
+        assertThat(secondLaunch.get().name(), is("i-2"));
+
+        ArgumentCaptor<RunInstancesRequest> runInstances = ArgumentCaptor.forClass(RunInstancesRequest.class);
+        verify(ec2, times(1)).runInstances(runInstances.capture());
+        assertThat(runInstances.getValue().maxCount(), is(2));
+        verify(ec2, times(2)).createTags(any(CreateTagsRequest.class));
+    }
+
+    @Test
+    public void shouldLaunchRequestsForDifferentProfilesSeparately() throws Exception {
+        when(ec2.runInstances(any(RunInstancesRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(RunInstancesResponse.builder().instances(instance("i-1")).build()))
+                .thenReturn(CompletableFuture.completedFuture(RunInstancesResponse.builder().instances(instance("i-2")).build()));
+
+        CompletableFuture<ExampleInstance> firstLaunch = launchBatcher.submit(request("ami-1", 1L), settings);
+        CompletableFuture<ExampleInstance> secondLaunch = launchBatcher.submit(request("ami-2", 2L), settings);
+        firstLaunch.get(5, TimeUnit.SECONDS);
+        secondLaunch.get(5, TimeUnit.SECONDS);
+
+        verify(ec2, times(2)).runInstances(any(RunInstancesRequest.class));
+        verify(ec2, never()).createTags(any(CreateTagsRequest.class));
+    }
+
+    @Test(expected = java.util.concurrent.ExecutionException.class)
+    public void shouldFailJobsThatEC2DidNotLaunchAnInstanceFor() throws Exception {
+        when(ec2.runInstances(any(RunInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                RunInstancesResponse.builder().instances(instance("i-1")).build()));
+
+        launchBatcher.submit(request("ami-1", 1L), settings);
+        CompletableFuture<ExampleInstance> secondLaunch = launchBatcher.submit(request("ami-1", 2L), settings);
+
+        secondLaunch.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldRetryTaggingAnInstanceOfABatch() throws Exception {
+        when(ec2.runInstances(any(RunInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                RunInstancesResponse.builder().instances(instance("i-1"), instance("i-2")).build()));
+        CompletableFuture<CreateTagsResponse> throttled = new CompletableFuture<>();
+        throttled.completeExceptionally(new RuntimeException("RequestLimitExceeded"));
+        when(ec2.createTags(any(CreateTagsRequest.class)))
+                .thenReturn(throttled)
+                .thenReturn(CompletableFuture.completedFuture(CreateTagsResponse.builder().build()));
+        CreateAgentRequest first = request("ami-1", 1L);
+
+        CompletableFuture<ExampleInstance> firstLaunch = launchBatcher.submit(first, settings);
+        CompletableFuture<ExampleInstance> secondLaunch = launchBatcher.submit(request("ami-1", 2L), settings);
+
+        assertThat(firstLaunch.get(5, TimeUnit.SECONDS).jobIdentifier(), is(first.jobIdentifier()));
+        secondLaunch.get(5, TimeUnit.SECONDS);
+        verify(ec2, times(3)).createTags(any(CreateTagsRequest.class));
+        verify(ec2, never()).terminateInstances(any(TerminateInstancesRequest.class));
+    }
+
+    @Test
+    public void shouldTerminateAndFailAnInstanceThatCannotBeTagged() throws Exception {
+        when(ec2.runInstances(any(RunInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                RunInstancesResponse.builder().instances(instance("i-1"), instance("i-2")).build()));
+        CompletableFuture<CreateTagsResponse> throttled = new CompletableFuture<>();
+        throttled.completeExceptionally(new RuntimeException("RequestLimitExceeded"));
+        when(ec2.createTags(any(CreateTagsRequest.class))).thenReturn(throttled);
+        when(ec2.terminateInstances(any(TerminateInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(TerminateInstancesResponse.builder().build()));
+
+        CompletableFuture<ExampleInstance> firstLaunch = launchBatcher.submit(request("ami-1", 1L), settings);
+        launchBatcher.submit(request("ami-1", 2L), settings);
+
+        try {
+            firstLaunch.get(5, TimeUnit.SECONDS);
+            fail("expected the launch to fail");
+        } catch (ExecutionException expected) {
+        }
+        verify(ec2, timeout(5000)).terminateInstances(TerminateInstancesRequest.builder().instanceIds("i-1").build());
+    }
+}
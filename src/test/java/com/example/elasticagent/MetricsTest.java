@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+public class MetricsTest {
+
+    private Metrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new Metrics();
+    }
+
+    @Test
+    public void shouldCountCallsAndErrorsPerTypeAndName() {
+        metrics.record(Metrics.REQUEST, "cd.go.elastic-agent.create-agent", TimeUnit.MILLISECONDS.toNanos(3), false);
+        metrics.record(Metrics.REQUEST, "cd.go.elastic-agent.create-agent", TimeUnit.MILLISECONDS.toNanos(5), true);
+        metrics.record(Metrics.EC2, "RunInstances", TimeUnit.MILLISECONDS.toNanos(200), false);
+
+        List<Metrics.Snapshot> snapshots = metrics.snapshot();
+
+        assertThat(snapshots.size(), is(2));
+        assertThat(snapshots.get(0).getType(), is(Metrics.EC2));
+        assertThat(snapshots.get(0).getName(), is("RunInstances"));
+        assertThat(snapshots.get(1).getCount(), is(2L));
+        assertThat(snapshots.get(1).getErrors(), is(1L));
+        assertThat(snapshots.get(1).getMeanMillis(), is("4.00"));
+        assertThat(snapshots.get(1).getMaxMillis(), is("5.00"));
+    }
+
+    @Test
+    public void shouldReportPercentilesAsTheUpperBoundOfTheirBucket() {
+        for (int i = 0; i < 99; i++) {
+            metrics.record(Metrics.SERVER, "go.processor.elastic-agents.list-agents", TimeUnit.MICROSECONDS.toNanos(100), false);
+        }
+        metrics.record(Metrics.SERVER, "go.processor.elastic-agents.list-agents", TimeUnit.SECONDS.toNanos(1), false);
+
+        Metrics.Snapshot snapshot = metrics.snapshot().get(0);
+
+        assertThat(snapshot.getP50Millis(), is("0.13"));
+        assertThat(snapshot.getP99Millis(), is("0.13"));
+        assertThat(snapshot.getMaxMillis(), is("1000.00"));
+    }
+
+    @Test
+    public void shouldExportTheSnapshotAsJson() {
+        metrics.record(Metrics.EC2, "DescribeInstances", TimeUnit.MILLISECONDS.toNanos(10), false);
+
+        String json = metrics.toJson();
+
+        assertThat(json, containsString("\"type\":\"ec2\""));
+        assertThat(json, containsString("\"name\":\"DescribeInstances\""));
+        assertThat(json, containsString("\"p99_millis\":"));
+    }
+
+    @Test
+    public void shouldLogTheSnapshotAsOneLine() {
+        metrics.record(Metrics.EC2, "DescribeInstances", TimeUnit.MILLISECONDS.toNanos(10), false);
+
+        String line = metrics.logLine();
+
+        assertThat(line, startsWith(Metrics.LOG_LINE_PREFIX + "[{"));
+        assertThat(line, not(containsString("\n")));
+    }
+}
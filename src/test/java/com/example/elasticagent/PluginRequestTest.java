@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
+import com.thoughtworks.go.plugin.api.request.GoApiRequest;
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import org.joda.time.Period;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class PluginRequestTest {
+
+    private static final String SETTINGS = "{\"go_server_url\": \"https://ci.example.com/go\", \"settings_refresh_interval\": \"30\"}";
+
+    private GoApplicationAccessor accessor;
+    private Clock.TestClock clock;
+    private PluginRequest pluginRequest;
+
+    @Before
+    public void setUp() {
+        accessor = mock(GoApplicationAccessor.class);
+        when(accessor.submit(any(GoApiRequest.class))).thenReturn(DefaultGoApiResponse.success(SETTINGS));
+        clock = new Clock.TestClock();
+        pluginRequest = new PluginRequest(accessor);
+        pluginRequest.clock = clock;
+    }
+
+    @Test
+    public void shouldServeSettingsFromTheCacheWithinTheRefreshInterval() throws Exception {
+        PluginSettings first = pluginRequest.getPluginSettings();
+        clock.forward(Period.seconds(29));
+        PluginSettings second = pluginRequest.getPluginSettings();
+
+        assertThat(second, sameInstance(first));
+        verify(accessor, times(1)).submit(any(GoApiRequest.class));
+    }
+
+    @Test
+    public void shouldKeepTheSameInstanceWhenTheRefetchedSettingsDidNotChange() throws Exception {
+        PluginSettings first = pluginRequest.getPluginSettings();
+        clock.forward(Period.seconds(31));
+        PluginSettings second = pluginRequest.getPluginSettings();
+
+        assertThat(second, sameInstance(first));
+        verify(accessor, times(2)).submit(any(GoApiRequest.class));
+    }
+
+    @Test
+    public void shouldRefetchAfterInvalidationUntilTheSavedSettingsCanBeSeen() throws Exception {
+        PluginSettings first = pluginRequest.getPluginSettings();
+
+        pluginRequest.invalidatePluginSettings();
+        pluginRequest.getPluginSettings();
+        when(accessor.submit(any(GoApiRequest.class))).thenReturn(DefaultGoApiResponse.success("{\"go_server_url\": \"https://new.example.com/go\"}"));
+        PluginSettings saved = pluginRequest.getPluginSettings();
+
+        assertThat(saved, is(not(first)));
+        assertThat(saved.getGoServerUrl(), is("https://new.example.com/go"));
+        verify(accessor, times(3)).submit(any(GoApiRequest.class));
+
+        clock.forward(Period.millis((int) PluginRequest.SETTINGS_SAVE_GRACE_MILLIS));
+        pluginRequest.getPluginSettings();
+        pluginRequest.getPluginSettings();
+        verify(accessor, times(4)).submit(any(GoApiRequest.class));
+    }
+}
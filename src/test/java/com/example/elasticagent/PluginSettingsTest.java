@@ -18,6 +18,8 @@ package com.example.elasticagent;
 
 import org.junit.Test;
 
+import java.time.Duration;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 
@@ -34,4 +36,27 @@ public class PluginSettingsTest {
         assertThat(pluginSettings.getApiKey(), is("p@ssw0rd"));
         assertThat(pluginSettings.getApiUrl(), is("https://cloud.example.com/api/v1"));
     }
+
+    @Test
+    public void shouldDefaultTheEC2TransportSettings() throws Exception {
+        PluginSettings pluginSettings = PluginSettings.fromJSON("{}");
+
+        assertThat(pluginSettings.getEc2MaxConnections(), is(50));
+        assertThat(pluginSettings.getEc2ConnectionTimeout(), is(Duration.ofSeconds(10)));
+        assertThat(pluginSettings.getEc2SocketTimeout(), is(Duration.ofSeconds(30)));
+        assertThat(pluginSettings.getEc2ConnectionMaxIdleTime(), is(Duration.ofSeconds(60)));
+        assertThat(pluginSettings.getEc2TcpKeepAlive(), is(true));
+        assertThat(pluginSettings.getSettingsRefreshInterval(), is(Duration.ofSeconds(60)));
+        assertThat(pluginSettings.getWarmPoolSize(), is(0));
+        assertThat(pluginSettings.getMaxJobsPerInstance(), is(1));
+        assertThat(pluginSettings.getIdleAgentKeepAlive(), is(Duration.ofSeconds(300)));
+    }
+
+    @Test
+    public void shouldOnlyCompareTransportSettingsWhenCheckingForSameTransport() throws Exception {
+        PluginSettings pluginSettings = PluginSettings.fromJSON("{\"api_user\": \"bob\", \"ec2_max_connections\": \"10\"}");
+
+        assertThat(pluginSettings.hasSameTransportAs(PluginSettings.fromJSON("{\"api_user\": \"alice\", \"ec2_max_connections\": \"10\"}")), is(true));
+        assertThat(pluginSettings.hasSameTransportAs(PluginSettings.fromJSON("{\"api_user\": \"bob\", \"ec2_max_connections\": \"20\"}")), is(false));
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import org.joda.time.Period;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class RefreshCoordinatorTest {
+
+    private AgentInstances agentInstances;
+    private PluginRequest pluginRequest;
+    private Clock.TestClock clock;
+    private RefreshCoordinator refreshCoordinator;
+
+    @Before
+    public void setUp() throws Exception {
+        agentInstances = mock(AgentInstances.class);
+        pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.getPluginSettings()).thenReturn(PluginSettings.fromJSON("{\"instance_refresh_interval\": \"30\"}"));
+        clock = new Clock.TestClock();
+        refreshCoordinator = new RefreshCoordinator(agentInstances, pluginRequest);
+        refreshCoordinator.clock = clock;
+    }
+
+    @Test
+    public void shouldSkipRefreshWhileInstancesAreFresh() throws Exception {
+        refreshCoordinator.refresh();
+        clock.forward(Period.seconds(29));
+        refreshCoordinator.refresh();
+
+        verify(agentInstances, times(1)).refreshAll(pluginRequest);
+        assertTrue(refreshCoordinator.isFresh());
+    }
+
+    @Test
+    public void shouldRefreshAgainOnceTheRefreshIntervalHasPassed() throws Exception {
+        refreshCoordinator.refresh();
+        clock.forward(Period.seconds(31));
+
+        assertFalse(refreshCoordinator.isFresh());
+        refreshCoordinator.refresh();
+
+        verify(agentInstances, times(2)).refreshAll(pluginRequest);
+    }
+
+    @Test
+    public void shouldKeepTheLastInstancesAndBackOffWhenARefreshFails() throws Exception {
+        doThrow(new RuntimeException("RequestLimitExceeded")).doNothing().when(agentInstances).refreshAll(pluginRequest);
+
+        refreshCoordinator.refresh();
+        refreshCoordinator.refresh();
+        verify(agentInstances, times(1)).refreshAll(pluginRequest);
+        assertTrue(refreshCoordinator.isBackingOff());
+
+        clock.forward(Period.millis((int) RefreshCoordinator.INITIAL_BACKOFF_MILLIS + 1));
+        refreshCoordinator.refresh();
+
+        verify(agentInstances, times(2)).refreshAll(pluginRequest);
+        assertTrue(refreshCoordinator.isFresh());
+        assertFalse(refreshCoordinator.isBackingOff());
+    }
+
+    @Test
+    public void shouldShareAnInFlightRefreshBetweenConcurrentCallers() throws Exception {
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch releaseRefresh = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            refreshStarted.countDown();
+            releaseRefresh.await();
+            return null;
+        }).when(agentInstances).refreshAll(pluginRequest);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> {
+                refreshCoordinator.refresh();
+                return null;
+            });
+            assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> {
+                refreshCoordinator.refresh();
+                return null;
+            });
+
+            releaseRefresh.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(agentInstances, times(1)).refreshAll(pluginRequest);
+    }
+
+    @Test
+    public void shouldNotBlockCallersOfBackgroundRefresh() throws Exception {
+        CountDownLatch releaseRefresh = new CountDownLatch(1);
+        CountDownLatch refreshFinished = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            releaseRefresh.await();
+            refreshFinished.countDown();
+            return null;
+        }).when(agentInstances).refreshAll(pluginRequest);
+
+        refreshCoordinator.refreshInBackground();
+        assertFalse(refreshCoordinator.isFresh());
+
+        releaseRefresh.countDown();
+        assertTrue(refreshFinished.await(5, TimeUnit.SECONDS));
+        refreshCoordinator.shutdown();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RegistrationDeadlinesTest {
+
+    @Test
+    public void shouldOnlyExpireInstancesWhoseDeadlineHasPassed() {
+        RegistrationDeadlines deadlines = new RegistrationDeadlines();
+        deadlines.track("i-old", 1000);
+        deadlines.track("i-new", 5000);
+
+        assertThat(deadlines.expire(4000, 2000), contains("i-old"));
+        assertThat(deadlines.expire(7000, 2000), contains("i-new"));
+    }
+
+    @Test
+    public void shouldNotExpireUntrackedInstances() {
+        RegistrationDeadlines deadlines = new RegistrationDeadlines();
+        deadlines.track("i-1", 1000);
+        deadlines.track("i-2", 1000);
+        deadlines.expire(4000, 2000);
+
+        deadlines.untrack("i-1", 1000);
+        deadlines.untrack("i-2", 1000);
+
+        assertThat(deadlines.expire(4000, 2000), is(empty()));
+    }
+
+    @Test
+    public void shouldHandOutAnInstanceKeptExpiredAgain() {
+        RegistrationDeadlines deadlines = new RegistrationDeadlines();
+        deadlines.track("i-1", 1000);
+        deadlines.expire(4000, 2000);
+
+        deadlines.keepExpired("i-1");
+        deadlines.track("i-1", 1000);
+
+        assertThat(deadlines.expire(1000, 2000), contains("i-1"));
+        assertThat(deadlines.expire(4000, 2000), is(empty()));
+    }
+
+    @Test
+    public void shouldNotTrackASettledInstanceAgainUntilItIsUntracked() {
+        RegistrationDeadlines deadlines = new RegistrationDeadlines();
+        deadlines.track("i-1", 1000);
+        deadlines.expire(4000, 2000);
+        deadlines.settle("i-1");
+
+        deadlines.track("i-1", 1000);
+        assertThat(deadlines.expire(4000, 2000), is(empty()));
+
+        deadlines.untrack("i-1", 1000);
+        deadlines.track("i-1", 3000);
+        assertThat(deadlines.expire(5000, 2000), contains("i-1"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent;
+
+import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RequestDispatcherTest {
+
+    private RequestDispatcher dispatcher;
+    private CountDownLatch release;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() {
+        RequestDispatcher.Limits limits = new RequestDispatcher.Limits(1, 1, 200);
+        dispatcher = new RequestDispatcher(limits, new RequestDispatcher.Limits(1, 1, 5000), limits);
+        release = new CountDownLatch(1);
+        callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    private GoPluginApiResponse blocked() throws InterruptedException {
+        release.await();
+        return DefaultGoPluginApiResponse.success("done");
+    }
+
+    @Test
+    public void shouldReturnTheResponseOfTheRequest() throws Exception {
+        GoPluginApiResponse response = dispatcher.dispatch(Request.REQUEST_CAPABILITIES, () -> DefaultGoPluginApiResponse.success("{}"));
+
+        assertThat(response.responseBody(), is("{}"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRethrowTheExceptionOfTheRequest() throws Exception {
+        dispatcher.dispatch(Request.REQUEST_CAPABILITIES, () -> {
+            throw new IllegalStateException("boom");
+        });
+    }
+
+    @Test
+    public void shouldDeclineWorkWhenShouldAssignWorkMissesItsDeadline() throws Exception {
+        GoPluginApiResponse response = dispatcher.dispatch(Request.REQUEST_SHOULD_ASSIGN_WORK, this::blocked);
+
+        assertThat(response.responseCode(), is(200));
+        assertThat(response.responseBody(), is("false"));
+    }
+
+    @Test
+    public void shouldLetLifecycleWorkFinishAfterItMissesItsDeadline() throws Exception {
+        RequestDispatcher.Limits limits = new RequestDispatcher.Limits(1, 1, 200);
+        RequestDispatcher dispatcher = new RequestDispatcher(limits, limits, limits);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        try {
+            GoPluginApiResponse response = dispatcher.dispatch(Request.REQUEST_CREATE_AGENT, () -> {
+                try {
+                    return blocked();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                    throw e;
+                } finally {
+                    finished.countDown();
+                }
+            });
+            release.countDown();
+
+            assertThat(response.responseCode(), is(500));
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            assertFalse(interrupted.get());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRejectRequestsWhenThePoolAndQueueAreFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        callers.submit(() -> dispatcher.dispatch(Request.REQUEST_GET_PROFILE_VIEW, () -> {
+            started.countDown();
+            return blocked();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // misses its deadline while it waits in the queue, where it stays until the running request is released
+        dispatcher.dispatch(Request.REQUEST_GET_PROFILE_VIEW, this::blocked);
+
+        GoPluginApiResponse response = dispatcher.dispatch(Request.REQUEST_GET_PROFILE_VIEW, this::blocked);
+
+        assertThat(response.responseCode(), is(500));
+        assertThat(response.responseBody(), containsString("too busy"));
+    }
+
+    @Test
+    public void shouldSkipAServerPingWhileThePreviousOneIsStillRunning() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<GoPluginApiResponse> first = callers.submit(() -> dispatcher.dispatch(Request.REQUEST_SERVER_PING, () -> {
+            started.countDown();
+            return blocked();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AtomicBoolean ran = new AtomicBoolean();
+
+        GoPluginApiResponse skipped = dispatcher.dispatch(Request.REQUEST_SERVER_PING, () -> {
+            ran.set(true);
+            return DefaultGoPluginApiResponse.success("");
+        });
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        assertThat(skipped.responseCode(), is(200));
+        assertFalse(ran.get());
+        assertThat(dispatcher.dispatch(Request.REQUEST_SERVER_PING, () -> DefaultGoPluginApiResponse.success("pong")).responseBody(), is("pong"));
+    }
+
+    @Test
+    public void shouldNotLetOneCategoryBlockAnother() throws Exception {
+        callers.submit(() -> dispatcher.dispatch(Request.REQUEST_CREATE_AGENT, this::blocked));
+        callers.submit(() -> dispatcher.dispatch(Request.REQUEST_CREATE_AGENT, this::blocked));
+
+        GoPluginApiResponse response = dispatcher.dispatch(Request.REQUEST_CAPABILITIES, () -> DefaultGoPluginApiResponse.success("{}"));
+
+        assertThat(response.responseBody(), is("{}"));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.models.JobIdentifier;
+import com.example.elasticagent.requests.CreateAgentRequest;
+import com.example.elasticagent.views.TemplateEngine;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class UserDataGeneratorTest {
+
+    private TemplateEngine templateEngine;
+    private UserDataGenerator generator;
+    private PluginSettings settings;
+
+    @Before
+    public void setUp() {
+        templateEngine = spy(TemplateEngine.instance());
+        generator = new UserDataGenerator(templateEngine);
+        settings = PluginSettings.fromJSON("{\"go_server_url\": \"https://ci.example.com:8154/go\", \"go_agent_version\": \"19.1.0-8469\"}");
+    }
+
+    private static CreateAgentRequest request(String autoRegisterKey) {
+        return new CreateAgentRequest(autoRegisterKey, Collections.emptyMap(), "prod", new JobIdentifier(1L));
+    }
+
+    private static String decode(String userData) {
+        return new String(Base64.getDecoder().decode(userData), StandardCharsets.UTF_8);
+    }
+
+    private static String gunzip(String userData) throws Exception {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(userData)))) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void shouldGenerateAPowerShellScriptForWindows() {
+        String script = decode(generator.generate(UserDataGenerator.Platform.WINDOWS, UserDataGenerator.InstallMode.DOWNLOAD, request("secret"), settings, null));
+
+        assertThat(script, startsWith("<powershell>"));
+        assertThat(script, containsString("agent.auto.register.key=secret\r\n"));
+        assertThat(script, containsString("https://download.gocd.org/binaries/19.1.0-8469/win/go-agent-19.1.0-8469-jre-64bit-setup.exe"));
+        assertThat(script, containsString("/SERVERURL=`\"https://ci.example.com:8154/go`\""));
+        assertThat(script, not(containsString(UserDataGenerator.AUTOREGISTER_PROPERTIES_MARKER)));
+    }
+
+    @Test
+    public void shouldGzipTheLinuxScripts() throws Exception {
+        String shell = gunzip(generator.generate(UserDataGenerator.Platform.LINUX_SHELL, UserDataGenerator.InstallMode.DOWNLOAD, request("secret"), settings, "https://mirror.example.com/go-agent.zip"));
+        String cloudConfig = gunzip(generator.generate(UserDataGenerator.Platform.LINUX_CLOUD_INIT, UserDataGenerator.InstallMode.DOWNLOAD, request("secret"), settings, null));
+
+        assertThat(shell, startsWith("#!/bin/bash"));
+        assertThat(shell, containsString("agent.auto.register.key=secret\n"));
+        assertThat(shell, containsString("'https://mirror.example.com/go-agent.zip'"));
+        assertThat(cloudConfig, startsWith("#cloud-config"));
+        assertThat(cloudConfig, containsString("\n      agent.auto.register.key=secret\n      "));
+        assertThat(cloudConfig, containsString("/generic/go-agent-19.1.0-8469.zip"));
+        assertThat(cloudConfig, endsWith("  - /usr/local/bin/start-go-agent\n"));
+    }
+
+    @Test
+    public void shouldKeepTheShellFromExpandingValuesInTheLinuxScripts() throws Exception {
+        String shell = gunzip(generator.generate(UserDataGenerator.Platform.LINUX_SHELL, UserDataGenerator.InstallMode.DOWNLOAD, request("se$cr`e`t"), settings, "https://mirror.example.com/it's.zip"));
+
+        assertThat(shell, containsString("<<'PROPERTIES'\nagent.auto.register.key=se$cr`e`t\n"));
+        assertThat(shell, containsString("'https://mirror.example.com/it'\\''s.zip'"));
+        assertThat(shell, containsString("GO_SERVER_URL='https://ci.example.com:8154/go'"));
+        assertThat(shell, containsString("agent.auto.register.elasticAgent.agentId=$instance_id"));
+    }
+
+    @Test
+    public void shouldInstallAJavaRuntimeBeforeStartingALinuxAgent() throws Exception {
+        String shell = gunzip(generator.generate(UserDataGenerator.Platform.LINUX_SHELL, UserDataGenerator.InstallMode.DOWNLOAD, request("secret"), settings, null));
+
+        assertThat(shell, containsString("command -v java"));
+        assertThat(shell.indexOf("command -v java"), lessThan(shell.indexOf("agent.sh")));
+    }
+
+    @Test
+    public void shouldRenderTheStaticPartOfATemplateOnlyOnce() {
+        generator.generate(UserDataGenerator.Platform.WINDOWS, UserDataGenerator.InstallMode.DOWNLOAD, request("first"), settings, null);
+        String second = decode(generator.generate(UserDataGenerator.Platform.WINDOWS, UserDataGenerator.InstallMode.DOWNLOAD, request("second"), settings, null));
+
+        assertThat(second, containsString("agent.auto.register.key=second"));
+        verify(templateEngine, times(1)).render(anyString(), any());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseUserDataThatEC2WouldReject() {
+        generator.generate(UserDataGenerator.Platform.WINDOWS, UserDataGenerator.InstallMode.DOWNLOAD, request(StringUtils.repeat('k', UserDataGenerator.MAX_USER_DATA_BYTES)), settings, null);
+    }
+
+    @Test
+    public void shouldOnlyConfigureAndStartAPreinstalledAgent() throws Exception {
+        String script = decode(generator.generate(UserDataGenerator.Platform.WINDOWS, UserDataGenerator.InstallMode.PREINSTALLED, request("secret"), settings, null));
+        String shell = gunzip(generator.generate(UserDataGenerator.Platform.LINUX_SHELL, UserDataGenerator.InstallMode.PREINSTALLED, request("secret"), settings, null));
+
+        assertThat(script, containsString("agent.auto.register.key=secret\r\n"));
+        assertThat(script, containsString("Start-Service"));
+        assertThat(script, not(containsString("download.gocd.org")));
+        assertThat(shell, containsString("agent.auto.register.key=secret\n"));
+        assertThat(shell, not(containsString("download.gocd.org")));
+    }
+
+    @Test
+    public void shouldGenerateAnAmiPreparationScriptThatInstallsWithoutStartingTheAgent() {
+        String script = generator.amiPreparationScript(UserDataGenerator.Platform.WINDOWS, settings, null);
+
+        assertThat(script, containsString("https://download.gocd.org/binaries/19.1.0-8469/win/go-agent-19.1.0-8469-jre-64bit-setup.exe"));
+        assertThat(script, containsString("/START_AGENT=NO"));
+        assertThat(script, not(containsString("agent.auto.register.key")));
+    }
+
+    @Test
+    public void shouldDefaultToDownloadingTheAgent() {
+        assertThat(UserDataGenerator.InstallMode.fromProfileValue(""), is(UserDataGenerator.InstallMode.DOWNLOAD));
+        assertThat(UserDataGenerator.InstallMode.fromProfileValue("Preinstalled"), is(UserDataGenerator.InstallMode.PREINSTALLED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownPlatforms() {
+        UserDataGenerator.Platform.fromProfileValue("solaris");
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.elasticagent;
+
+import com.example.elasticagent.models.JobIdentifier;
+import com.example.elasticagent.requests.CreateAgentRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.ModifyInstanceAttributeRequest;
+import software.amazon.awssdk.services.ec2.model.ModifyInstanceAttributeResponse;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.StartInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StartInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StopInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class WarmPoolTest {
+
+    private Ec2AsyncClient ec2;
+    private WarmPool warmPool;
+    private PluginSettings settings;
+
+    @Before
+    public void setUp() {
+        ec2 = mock(Ec2AsyncClient.class);
+        warmPool = new WarmPool(() -> ec2);
+        settings = PluginSettings.fromJSON("{\"go_server_url\": \"https://ci.example.com/go\", \"warm_pool_size\": \"2\"}");
+        when(ec2.runInstances(any(RunInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                RunInstancesResponse.builder().instances(Instance.builder().instanceId("i-1").build(), Instance.builder().instanceId("i-2").build()).build()));
+        when(ec2.stopInstances(any(StopInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(StopInstancesResponse.builder().build()));
+        when(ec2.modifyInstanceAttribute(any(ModifyInstanceAttributeRequest.class))).thenReturn(CompletableFuture.completedFuture(ModifyInstanceAttributeResponse.builder().build()));
+        when(ec2.createTags(any(CreateTagsRequest.class))).thenReturn(CompletableFuture.completedFuture(CreateTagsResponse.builder().build()));
+        when(ec2.deleteTags(any(DeleteTagsRequest.class))).thenReturn(CompletableFuture.completedFuture(DeleteTagsResponse.builder().build()));
+        when(ec2.startInstances(any(StartInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(StartInstancesResponse.builder().build()));
+        when(ec2.terminateInstances(any(TerminateInstancesRequest.class))).thenReturn(CompletableFuture.completedFuture(TerminateInstancesResponse.builder().build()));
+    }
+
+    private static CreateAgentRequest request(long jobId) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("ImageId", "ami-1");
+        properties.put("AgentInstallMode", "preinstalled");
+        JobIdentifier jobIdentifier = new JobIdentifier("up42", 1L, "label", "stage", "1", "job" + jobId, jobId);
+        return new CreateAgentRequest("key", properties, "prod", jobIdentifier);
+    }
+
+    private static Instance poolInstance(String instanceId, CreateAgentRequest request, InstanceStateName state) {
+        return Instance.builder()
+                .instanceId(instanceId)
+                .launchTime(Instant.now())
+                .state(InstanceState.builder().name(state).build())
+                .tags(Tag.builder().key(WarmPool.WARM_POOL_TAG).value(WarmPool.poolId(request)).build())
+                .build();
+    }
+
+    @Test
+    public void shouldFillThePoolOfAProfileAfterItsFirstJob() throws Exception {
+        assertThat(warmPool.claim(request(1L), settings), is(nullValue()));
+
+        ArgumentCaptor<RunInstancesRequest> runInstances = ArgumentCaptor.forClass(RunInstancesRequest.class);
+        verify(ec2, times(1)).runInstances(runInstances.capture());
+        assertThat(runInstances.getValue().maxCount(), is(2));
+        assertThat(runInstances.getValue().userData(), is(nullValue()));
+        assertThat(runInstances.getValue().tagSpecifications().get(0).tags(),
+                hasItem(Tag.builder().key(WarmPool.WARM_POOL_TAG).value(WarmPool.poolId(request(1L))).build()));
+
+        warmPool.claim(request(2L), settings);
+        // the instances of the first fill are still warming up
+        verify(ec2, times(1)).runInstances(any(RunInstancesRequest.class));
+    }
+
+    @Test
+    public void shouldStopRunningPoolInstancesAndHandOutStoppedOnes() throws Exception {
+        CreateAgentRequest first = request(1L);
+        warmPool.claim(first, settings);
+
+        assertTrue(warmPool.observe(poolInstance("i-1", first, InstanceStateName.RUNNING)));
+        assertTrue(warmPool.observe(poolInstance("i-1", first, InstanceStateName.RUNNING)));
+        verify(ec2, times(1)).stopInstances(any(StopInstancesRequest.class));
+
+        assertTrue(warmPool.observe(poolInstance("i-1", first, InstanceStateName.STOPPED)));
+        assertThat(warmPool.ready(first), is(1));
+
+        CreateAgentRequest second = request(2L);
+        ExampleInstance started = warmPool.claim(second, settings).get(5, TimeUnit.SECONDS);
+
+        assertThat(started.name(), is("i-1"));
+        assertThat(started.jobIdentifier(), is(second.jobIdentifier()));
+        verify(ec2).modifyInstanceAttribute(any(ModifyInstanceAttributeRequest.class));
+        verify(ec2).deleteTags(any(DeleteTagsRequest.class));
+        verify(ec2).startInstances(StartInstancesRequest.builder().instanceIds("i-1").build());
+        // a listing made before the retagging still shows the pool tag
+        assertTrue(warmPool.observe(poolInstance("i-1", first, InstanceStateName.PENDING)));
+        assertThat(warmPool.ready(first), is(0));
+    }
+
+    @Test
+    public void shouldTerminateSurplusPoolInstances() throws Exception {
+        CreateAgentRequest request = request(1L);
+        warmPool.resize(1);
+
+        warmPool.observe(poolInstance("i-1", request, InstanceStateName.STOPPED));
+        warmPool.observe(poolInstance("i-2", request, InstanceStateName.STOPPED));
+
+        assertThat(warmPool.ready(request), is(1));
+        verify(ec2).terminateInstances(TerminateInstancesRequest.builder().instanceIds("i-2").build());
+    }
+
+    @Test
+    public void shouldNotLaunchAPoolForProfilesThatInstallTheAgentOnBoot() throws Exception {
+        CreateAgentRequest request = new CreateAgentRequest("key", new HashMap<>(), "prod", request(1L).jobIdentifier());
+
+        assertThat(warmPool.claim(request, settings), is(nullValue()));
+        warmPool.claim(request, settings);
+
+        verify(ec2, never()).runInstances(any(RunInstancesRequest.class));
+    }
+
+    @Test
+    public void shouldLeaveInstancesOutsideOfAPoolToTheRegistry() {
+        assertFalse(warmPool.observe(Instance.builder().instanceId("i-1").build()));
+    }
+}
@@ -75,6 +75,82 @@ public class GetPluginConfigurationExecutorTest {
                 "    \"required\": true,\n" +
                 "    \"secure\": false,\n" +
                 "    \"display-order\": \"4\"\n" +
+                "  },\n" +
+                "  \"instance_refresh_interval\": {\n" +
+                "    \"display-name\": \"Instance refresh interval (in seconds)\",\n" +
+                "    \"default-value\": \"60\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"5\"\n" +
+                "  },\n" +
+                "  \"ec2_max_connections\": {\n" +
+                "    \"display-name\": \"EC2 connection pool size\",\n" +
+                "    \"default-value\": \"50\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"6\"\n" +
+                "  },\n" +
+                "  \"ec2_connection_timeout\": {\n" +
+                "    \"display-name\": \"EC2 connection timeout (in seconds)\",\n" +
+                "    \"default-value\": \"10\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"7\"\n" +
+                "  },\n" +
+                "  \"ec2_socket_timeout\": {\n" +
+                "    \"display-name\": \"EC2 socket timeout (in seconds)\",\n" +
+                "    \"default-value\": \"30\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"8\"\n" +
+                "  },\n" +
+                "  \"ec2_connection_max_idle_time\": {\n" +
+                "    \"display-name\": \"EC2 connection max idle time (in seconds)\",\n" +
+                "    \"default-value\": \"60\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"9\"\n" +
+                "  },\n" +
+                "  \"ec2_tcp_keep_alive\": {\n" +
+                "    \"display-name\": \"EC2 TCP keep-alive\",\n" +
+                "    \"default-value\": \"true\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"10\"\n" +
+                "  },\n" +
+                "  \"settings_refresh_interval\": {\n" +
+                "    \"display-name\": \"Plugin settings refresh interval (in seconds)\",\n" +
+                "    \"default-value\": \"60\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"11\"\n" +
+                "  },\n" +
+                "  \"go_agent_version\": {\n" +
+                "    \"display-name\": \"GoCD agent version\",\n" +
+                "    \"default-value\": \"18.11.0-8024\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"12\"\n" +
+                "  },\n" +
+                "  \"warm_pool_size\": {\n" +
+                "    \"display-name\": \"Stopped instances kept ready per elastic profile\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"13\"\n" +
+                "  },\n" +
+                "  \"max_jobs_per_instance\": {\n" +
+                "    \"display-name\": \"Maximum jobs per instance\",\n" +
+                "    \"default-value\": \"1\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"14\"\n" +
+                "  },\n" +
+                "  \"idle_agent_keep_alive\": {\n" +
+                "    \"display-name\": \"Idle agent keep-alive (in seconds)\",\n" +
+                "    \"default-value\": \"300\",\n" +
+                "    \"required\": false,\n" +
+                "    \"secure\": false,\n" +
+                "    \"display-order\": \"15\"\n" +
                 "  }\n" +
                 "}";
 
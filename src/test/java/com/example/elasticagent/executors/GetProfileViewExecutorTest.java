@@ -49,4 +49,11 @@ public class GetProfileViewExecutorTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldRenderTheViewOnlyOnce() throws Exception {
+        GoPluginApiResponse first = new GetProfileViewExecutor().execute();
+        GoPluginApiResponse second = new GetProfileViewExecutor().execute();
+
+        assertThat(second.responseBody(), is(sameInstance(first.responseBody())));
+    }
+}
@@ -39,4 +39,18 @@ public class JobCompletionRequestExecutorTest {
 
         verify(agentInstances).terminate(elasticAgentId, settings);
     }
+
+    @Test
+    public void shouldKeepAnAgentThatIsReusedInsteadOfTerminatingIt() throws Exception {
+        String elasticAgentId = "agent-id";
+        JobCompletionRequest request = new JobCompletionRequest(elasticAgentId, new JobIdentifier());
+        AgentInstances agentInstances = mock(AgentInstances.class);
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        PluginSettings settings = mock(PluginSettings.class);
+        when(pluginRequest.getPluginSettings()).thenReturn(settings);
+        when(agentInstances.keepForReuse(elasticAgentId, settings)).thenReturn(true);
+        new JobCompletionRequestExecutor(request, agentInstances, pluginRequest).execute();
+
+        verify(agentInstances, never()).terminate(elasticAgentId, settings);
+    }
 }
@@ -22,6 +22,8 @@ import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ProfileValidateRequestExecutorTest {
     @Test
@@ -37,4 +39,29 @@ public class ProfileValidateRequestExecutorTest {
         String json = executor.execute().responseBody();
         JSONAssert.assertEquals("[{\"message\":\"Image must not be blank.\",\"key\":\"Image\"}]", json, JSONCompareMode.NON_EXTENSIBLE);
     }
+
+    @Test
+    public void shouldNotRequireTheInstanceFieldsWhenALaunchTemplateIsGiven() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("LaunchTemplateId", "lt-0abcd1234efgh5678");
+        properties.put("LaunchTemplateVersion", "$Latest");
+        properties.put("InstanceType", "c5.large");
+        ProfileValidateRequestExecutor executor = new ProfileValidateRequestExecutor(new ProfileValidateRequest(properties));
+
+        JSONAssert.assertEquals("[]", executor.execute().responseBody(), JSONCompareMode.NON_EXTENSIBLE);
+    }
+
+    @Test
+    public void shouldRejectALaunchTemplateVersionWithoutALaunchTemplate() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("LaunchTemplateVersion", "3");
+        properties.put("ImageId", "ami-017bf00eb0d4c7182");
+        properties.put("InstanceType", "t2.micro");
+        properties.put("SecurityGroupId", "sg-00a22b0befc186b4c");
+        properties.put("KeyName", "MyFirstKey.pem");
+        ProfileValidateRequestExecutor executor = new ProfileValidateRequestExecutor(new ProfileValidateRequest(properties));
+
+        JSONAssert.assertEquals("[{\"key\":\"LaunchTemplateVersion\",\"message\":\"LaunchTemplateVersion requires a LaunchTemplateId.\"}]",
+                executor.execute().responseBody(), JSONCompareMode.NON_EXTENSIBLE);
+    }
 }
\ No newline at end of file
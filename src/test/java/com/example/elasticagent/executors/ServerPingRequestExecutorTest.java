@@ -19,6 +19,7 @@ package com.example.elasticagent.executors;
 import com.example.elasticagent.*;
 import com.example.elasticagent.models.JobIdentifier;
 import com.example.elasticagent.requests.CreateAgentRequest;
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
 import org.joda.time.Period;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
@@ -42,7 +43,8 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         when(pluginRequest.listAgents()).thenReturn(agents);
         verifyNoMoreInteractions(pluginRequest);
 
-        final Collection<Agent> values = agents.agents();
+        // a copy, the ping applies the disable to the listed agents
+        final Collection<Agent> values = new ArrayList<>(agents.agents());
         new ServerPingRequestExecutor(agentInstances, pluginRequest).execute();
         verify(pluginRequest).disableAgents(argThat(collectionMatches(values)));
     }
@@ -72,6 +74,40 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         verify(pluginRequest).deleteAgents(argThat(collectionMatches(values)));
     }
 
+    @Test
+    public void shouldTerminateAgentsItDisabledWithoutListingAgentsAgain() throws Exception {
+        Agent idle = new Agent("foo", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+        AgentInstances agentInstances = new ExampleAgentInstances();
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.getPluginSettings()).thenReturn(createSettings());
+        when(pluginRequest.listAgents()).thenReturn(new Agents(Arrays.asList(idle)));
+
+        new ServerPingRequestExecutor(agentInstances, pluginRequest).execute();
+
+        verify(pluginRequest, times(1)).listAgents();
+        verify(pluginRequest).disableAgents(argThat(collectionMatches(Arrays.asList(idle))));
+        verify(pluginRequest).deleteAgents(argThat(collectionMatches(Arrays.asList(
+                new Agent("foo", Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled)))));
+    }
+
+    @Test
+    public void shouldListAgentsAgainWhenTheServerRefusesToDisableThem() throws Exception {
+        Agent idle = new Agent("foo", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+        Agent building = new Agent("foo", Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled);
+        AgentInstances agentInstances = new ExampleAgentInstances();
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.getPluginSettings()).thenReturn(createSettings());
+        when(pluginRequest.listAgents()).thenReturn(new Agents(Arrays.asList(idle)), new Agents(Arrays.asList(building)));
+        doThrow(ServerRequestFailedException.disableAgents(new DefaultGoApiResponse(409))).when(pluginRequest).disableAgents(anyCollection());
+
+        new ServerPingRequestExecutor(agentInstances, pluginRequest).execute();
+
+        verify(pluginRequest, times(2)).listAgents();
+        verify(pluginRequest).deleteAgents(argThat(collectionMatches(Collections.emptyList())));
+    }
+
     /* TODO: This test creates an instance.  Is there a way to rewrite this test to not create an actual AWS instance?
     @Test
     public void testShouldTerminateInstancesThatNeverAutoRegistered() throws Exception {
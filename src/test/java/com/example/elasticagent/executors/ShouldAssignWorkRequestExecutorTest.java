@@ -24,6 +24,7 @@ import com.example.elasticagent.requests.ShouldAssignWorkRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.junit.Before;
 import org.junit.Test;
+import software.amazon.awssdk.services.ec2.model.Instance;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -31,6 +32,8 @@ import java.util.UUID;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ShouldAssignWorkRequestExecutorTest extends BaseTest {
 
@@ -73,4 +76,42 @@ public class ShouldAssignWorkRequestExecutorTest extends BaseTest {
         assertThat(response.responseCode(), is(200));
         assertThat(response.responseBody(), is("false"));
     }*/
+
+    @Test
+    public void shouldAssignWorkToAnIdleAgentClaimedForTheJob() {
+        AgentInstances<ExampleInstance> agentInstances = mock(AgentInstances.class);
+        ExampleInstance instance = new ExampleInstance(Instance.builder().instanceId("i-1").tags(jobIdentifier.getTagsForInstance()).build());
+        when(agentInstances.find("i-1")).thenReturn(instance);
+        JobIdentifier otherJobId = new JobIdentifier("up42", 2L, "foo", "stage", "1", "job", 2L);
+        ShouldAssignWorkRequest request = new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), environment, otherJobId, properties);
+        when(agentInstances.assignIdle("i-1", request)).thenReturn(true);
+
+        GoPluginApiResponse response = new ShouldAssignWorkRequestExecutor(request, agentInstances).execute();
+
+        assertThat(response.responseBody(), is("true"));
+    }
+
+    @Test
+    public void shouldNotAssignWorkOfAnotherJobToABusyAgent() {
+        AgentInstances<ExampleInstance> agentInstances = mock(AgentInstances.class);
+        ExampleInstance instance = new ExampleInstance(Instance.builder().instanceId("i-1").tags(jobIdentifier.getTagsForInstance()).build());
+        when(agentInstances.find("i-1")).thenReturn(instance);
+        JobIdentifier otherJobId = new JobIdentifier("up42", 2L, "foo", "stage", "1", "job", 2L);
+        ShouldAssignWorkRequest request = new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), environment, otherJobId, properties);
+
+        GoPluginApiResponse response = new ShouldAssignWorkRequestExecutor(request, agentInstances).execute();
+
+        assertThat(response.responseBody(), is("false"));
+    }
+
+    @Test
+    public void shouldNotAssignWorkToAnAgentThatHasNoJobYet() {
+        AgentInstances<ExampleInstance> agentInstances = mock(AgentInstances.class);
+        when(agentInstances.find("i-1")).thenReturn(new ExampleInstance(Instance.builder().instanceId("i-1").build()));
+        ShouldAssignWorkRequest request = new ShouldAssignWorkRequest(new Agent("i-1", null, null, null), environment, jobIdentifier, properties);
+
+        GoPluginApiResponse response = new ShouldAssignWorkRequestExecutor(request, agentInstances).execute();
+
+        assertThat(response.responseBody(), is("false"));
+    }
 }
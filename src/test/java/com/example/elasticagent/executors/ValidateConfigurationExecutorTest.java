@@ -68,4 +68,54 @@ public class ValidateConfigurationExecutorTest {
         assertThat(response.responseCode(), is(200));
         JSONAssert.assertEquals("[]", response.responseBody(), true);
     }
+
+    @Test
+    public void shouldAcceptAZeroWarmPoolSize() throws Exception {
+        ValidatePluginSettings settings = goodSettings();
+        settings.put("warm_pool_size", "0");
+        GoPluginApiResponse response = new ValidateConfigurationExecutor(settings).execute();
+
+        assertThat(response.responseCode(), is(200));
+        JSONAssert.assertEquals("[]", response.responseBody(), true);
+    }
+
+    @Test
+    public void shouldRejectANegativeWarmPoolSize() throws Exception {
+        ValidatePluginSettings settings = goodSettings();
+        settings.put("warm_pool_size", "-1");
+        GoPluginApiResponse response = new ValidateConfigurationExecutor(settings).execute();
+
+        assertThat(response.responseCode(), is(200));
+        JSONAssert.assertEquals("[\n" +
+                "  {\n" +
+                "    \"message\": \"Stopped instances kept ready per elastic profile must be zero or a positive integer.\",\n" +
+                "    \"key\": \"warm_pool_size\"\n" +
+                "  }\n" +
+                "]", response.responseBody(), true);
+    }
+
+    @Test
+    public void shouldRejectATcpKeepAliveThatIsNotABoolean() throws Exception {
+        ValidatePluginSettings settings = goodSettings();
+        settings.put("ec2_tcp_keep_alive", "ture");
+        GoPluginApiResponse response = new ValidateConfigurationExecutor(settings).execute();
+
+        assertThat(response.responseCode(), is(200));
+        JSONAssert.assertEquals("[\n" +
+                "  {\n" +
+                "    \"message\": \"EC2 TCP keep-alive must be either true or false.\",\n" +
+                "    \"key\": \"ec2_tcp_keep_alive\"\n" +
+                "  }\n" +
+                "]", response.responseBody(), true);
+    }
+
+    private ValidatePluginSettings goodSettings() {
+        ValidatePluginSettings settings = new ValidatePluginSettings();
+        settings.put("api_url", "https://api.example.com");
+        settings.put("api_user", "bob");
+        settings.put("api_key", "p@ssw0rd");
+        settings.put("go_server_url", "https://ci.example.com");
+        settings.put("auto_register_timeout", "10");
+        return settings;
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.elasticagent.views;
+
+import com.example.elasticagent.models.AgentStatusReport;
+import com.example.elasticagent.models.JobIdentifierMother;
+import com.example.elasticagent.models.StatusReport;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ViewBuilderTest {
+
+    private final ViewBuilder viewBuilder = ViewBuilder.instance();
+
+    @Test
+    public void shouldRenderEveryAgentIntoThePluginStatusReport() {
+        StatusReport statusReport = new StatusReport("1.0", Arrays.asList(
+                new AgentStatusReport(JobIdentifierMother.get(), "i-1", 1500000000000L, "running", "prod"),
+                new AgentStatusReport(null, "i-2", 1500000000000L, "pending", null)));
+
+        String view = viewBuilder.build("status-report-template", statusReport);
+
+        assertThat(view, containsString("Plugin version: 1.0"));
+        assertThat(view, containsString("<td>i-1</td>"));
+        assertThat(view, containsString("<td>i-2</td>"));
+        assertThat(view, containsString(JobIdentifierMother.get().getRepresentation()));
+        assertThat(view, not(containsString("agent-status-report")));
+    }
+
+    @Test
+    public void shouldRenderASingleAgentStatusReport() {
+        AgentStatusReport agentStatusReport = new AgentStatusReport(JobIdentifierMother.get(), "i-1", 1500000000000L, "running", "prod");
+
+        String view = viewBuilder.build("status-report-template", agentStatusReport);
+
+        assertThat(view, containsString("Instance i-1"));
+        assertThat(view, containsString("2017-07-14T02:40:00Z"));
+        assertThat(view, not(containsString("Plugin version")));
+    }
+
+    @Test
+    public void shouldRenderTemplatesWithoutAModel() {
+        assertThat(viewBuilder.build("not-running-template"), containsString("not running"));
+        assertThat(viewBuilder.build("error-template"), containsString("could not be generated"));
+    }
+
+    @Test
+    public void shouldWriteTheSameViewIntoAWriter() throws Exception {
+        StatusReport statusReport = new StatusReport("1.0");
+        StringWriter writer = new StringWriter();
+
+        viewBuilder.write(writer, "status-report-template", statusReport);
+
+        assertThat(writer.toString(), is(viewBuilder.build("status-report-template", statusReport)));
+    }
+}